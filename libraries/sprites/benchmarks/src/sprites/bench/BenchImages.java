@@ -0,0 +1,111 @@
+/*
+  Part of the Sprites for Processing library 
+  	http://sprites4processing.lagers.org.uk
+	http://code.google.com/p/sprites4processing/svn/trunk
+
+  Copyright (c) 2009 Peter Lager
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+ */
+
+package sprites.bench;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import sprites.S4P;
+
+/**
+ * Creates the image files used by the benchmarks and puts S4P into
+ * headless mode so no window is needed. <br>
+ * 
+ * The sprite image is a filled circle on a transparent background so 
+ * pixel level tests have both opaque and transparent pixels to look at.
+ * 
+ * @author Peter Lager
+ *
+ */
+public class BenchImages {
+
+	private static File dir = null;
+
+	/**
+	 * Put S4P into headless mode (once per JVM)
+	 */
+	public static void init(){
+		if(!S4P.isHeadless())
+			S4P.initHeadless(1024, 768);
+	}
+
+	/**
+	 * Get the path to a sprite sheet of circles
+	 * 
+	 * @param size width and height of each frame
+	 * @param cols number of frames across
+	 * @return the absolute filename
+	 */
+	public static String sheet(int size, int cols){
+		return write("sheet_" + size + "_" + cols + ".png", size, cols, false);
+	}
+
+	/**
+	 * Get the path to an alpha mask matching sheet(size, cols)
+	 * 
+	 * @param size width and height of each frame
+	 * @param cols number of frames across
+	 * @return the absolute filename
+	 */
+	public static String mask(int size, int cols){
+		return write("mask_" + size + "_" + cols + ".png", size, cols, true);
+	}
+
+	private static String write(String name, int size, int cols, boolean mask){
+		try {
+			if(dir == null){
+				dir = File.createTempFile("s4pbench", "");
+				dir.delete();
+				dir.mkdirs();
+				dir.deleteOnExit();
+			}
+			File f = new File(dir, name);
+			if(!f.exists()){
+				BufferedImage bi = new BufferedImage(size * cols, size, BufferedImage.TYPE_INT_ARGB);
+				float r = size / 2.0f;
+				for(int y = 0; y < size; y++){
+					for(int x = 0; x < size * cols; x++){
+						float dx = (x % size) + 0.5f - r, dy = y + 0.5f - r;
+						boolean inside = dx * dx + dy * dy < r * r;
+						int argb;
+						if(mask)
+							argb = inside ? 0xffffffff : 0xff000000;
+						else
+							argb = inside ? 0xff2080ff : 0x00000000;
+						bi.setRGB(x, y, argb);
+					}
+				}
+				ImageIO.write(bi, "png", f);
+				f.deleteOnExit();
+			}
+			return f.getAbsolutePath();
+		}
+		catch(IOException e){
+			throw new RuntimeException("Unable to create benchmark image " + name, e);
+		}
+	}
+}
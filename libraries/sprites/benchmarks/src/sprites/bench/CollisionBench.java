@@ -0,0 +1,91 @@
+/*
+  Part of the Sprites for Processing library 
+  	http://sprites4processing.lagers.org.uk
+	http://code.google.com/p/sprites4processing/svn/trunk
+
+  Copyright (c) 2009 Peter Lager
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+ */
+
+package sprites.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import sprites.Sprite;
+
+/**
+ * Sprite against sprite collision tests. <br>
+ * 
+ * Two circular sprites of the given size are placed so that the amount
+ * they overlap horizontally is the given percentage of their width. At
+ * 0% they are touching, at 100% they are on top of each other.
+ * 
+ * @author Peter Lager
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CollisionBench {
+
+	@Param({"32", "128"})
+	public int size;
+
+	@Param({"0", "10", "50", "100"})
+	public int overlap;
+
+	private Sprite spriteA, spriteB;
+
+	@Setup
+	public void setup(){
+		BenchImages.init();
+		String fname = BenchImages.sheet(size, 1);
+		spriteA = new Sprite(null, fname, 0);
+		spriteB = new Sprite(null, fname, 0);
+		spriteA.setXY(200, 200);
+		spriteB.setXY(200 + size - size * overlap / 100.0f, 200);
+	}
+
+	@Benchmark
+	public boolean pp_collision(){
+		return spriteA.pp_collision(spriteB);
+	}
+
+	@Benchmark
+	public boolean cc_collision(){
+		return spriteA.cc_collision(spriteB);
+	}
+
+	@Benchmark
+	public boolean bb_collision(){
+		return spriteA.bb_collision(spriteB);
+	}
+
+	@Benchmark
+	public boolean oo_collision(){
+		return spriteA.oo_collision(spriteB, 40);
+	}
+}
@@ -0,0 +1,73 @@
+/*
+  Part of the Sprites for Processing library 
+  	http://sprites4processing.lagers.org.uk
+	http://code.google.com/p/sprites4processing/svn/trunk
+
+  Copyright (c) 2009 Peter Lager
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+ */
+
+package sprites.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import processing.core.PImage;
+import sprites.ImageInfo;
+import sprites.S4P;
+
+/**
+ * Slicing a sprite sheet into frames with and without an alpha mask.
+ * 
+ * @author Peter Lager
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FramesBench {
+
+	@Param({"32", "128"})
+	public int size;
+
+	private ImageInfo plain, masked;
+
+	@Setup
+	public void setup(){
+		BenchImages.init();
+		plain = S4P.getImageInfo(null, BenchImages.sheet(size, 8), 8, 1);
+		masked = S4P.getImageInfo(null, BenchImages.sheet(size, 8), BenchImages.mask(size, 8), 8, 1);
+	}
+
+	@Benchmark
+	public PImage[] getFrames(){
+		return S4P.getFrames(plain);
+	}
+
+	@Benchmark
+	public PImage[] getFramesAlphaMask(){
+		return S4P.getFrames(masked);
+	}
+}
@@ -0,0 +1,92 @@
+/*
+  Part of the Sprites for Processing library 
+  	http://sprites4processing.lagers.org.uk
+	http://code.google.com/p/sprites4processing/svn/trunk
+
+  Copyright (c) 2009 Peter Lager
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+ */
+
+package sprites.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import sprites.S4P;
+import sprites.Sprite;
+
+/**
+ * Creating (and so registering) a burst of sprites in a few z orders, 
+ * the way a spawn heavy sketch does. The sprites are deregistered after
+ * each invocation (outside the timed code) so the registry does not keep 
+ * growing and the existing sprites are never updated. Results are per 
+ * sprite.
+ * 
+ * @author Peter Lager
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(RegisterBench.BURST)
+public class RegisterBench {
+
+	public static final int BURST = 500;
+
+	@Param({"0", "1000", "10000"})
+	public int nbrExisting;
+
+	private String fname;
+	private Sprite[] burst = new Sprite[BURST];
+
+	@Setup
+	public void setup(){
+		BenchImages.init();
+		fname = BenchImages.sheet(16, 4);
+		for(int i = 0; i < nbrExisting; i++)
+			new Sprite(null, fname, 4, 1, i % 4);
+	}
+
+	@Benchmark
+	public void registerBurst(Blackhole bh){
+		for(int i = 0; i < BURST; i++)
+			burst[i] = new Sprite(null, fname, 4, 1, i % 4);
+		bh.consume(burst);
+	}
+
+	@TearDown(Level.Invocation)
+	public void removeBurst(){
+		for(int i = 0; i < BURST; i++){
+			S4P.deregisterSprite(burst[i]);
+			burst[i] = null;
+		}
+		// Squeeze out the empty slots left in the layers
+		S4P.sortZorder();
+	}
+}
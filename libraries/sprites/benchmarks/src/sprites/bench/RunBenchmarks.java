@@ -0,0 +1,63 @@
+/*
+  Part of the Sprites for Processing library 
+  	http://sprites4processing.lagers.org.uk
+	http://code.google.com/p/sprites4processing/svn/trunk
+
+  Copyright (c) 2009 Peter Lager
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+ */
+
+package sprites.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the sprites library benchmarks with the GC profiler so the amount
+ * of garbage created per operation is reported alongside the times. <br>
+ * 
+ * Build the benchmarks with Maven from the sprites library folder. The 
+ * library jar (library/sprites.jar) must be up to date with the source 
+ * and the path of Processing's core.jar must be given e.g.
+ * <pre>mvn -f benchmarks/pom.xml package -Dprocessing.core=/path/to/core.jar</pre>
+ * This makes benchmarks/target/benchmarks.jar holding the benchmarks 
+ * and JMH. Run it with the library and core.jar on the class path, an 
+ * optional regular expression selects the benchmarks to run e.g.
+ * <pre>java -cp benchmarks/target/benchmarks.jar:library/sprites.jar:/path/to/core.jar 
+ *     sprites.bench.RunBenchmarks Collision</pre>
+ * (use ; instead of : to separate the class path on Windows).
+ * 
+ * @author Peter Lager
+ *
+ */
+public class RunBenchmarks {
+
+	public static void main(String[] args) throws RunnerException {
+		String include = (args.length > 0) ? args[0] : "sprites.bench";
+		Options opt = new OptionsBuilder()
+		.include(include)
+		.addProfiler(GCProfiler.class)
+		.forks(1)
+		.warmupIterations(5)
+		.measurementIterations(5)
+		.build();
+		new Runner(opt).run();
+	}
+}
@@ -0,0 +1,94 @@
+/*
+  Part of the Sprites for Processing library 
+  	http://sprites4processing.lagers.org.uk
+	http://code.google.com/p/sprites4processing/svn/trunk
+
+  Copyright (c) 2009 Peter Lager
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+ */
+
+package sprites.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import sprites.Sprite;
+
+/**
+ * Sprite.bite() and Sprite.isOver() on a multi-frame sprite.
+ * 
+ * @author Peter Lager
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SpriteBench {
+
+	@Param({"32", "128"})
+	public int size;
+
+	private Sprite sprite;
+	private int px, py;
+
+	/**
+	 * A sprite that has its images restored before every bite
+	 */
+	@State(Scope.Thread)
+	public static class Bitten {
+		Sprite sprite;
+
+		@Setup
+		public void setup(SpriteBench bench){
+			BenchImages.init();
+			sprite = new Sprite(null, BenchImages.sheet(bench.size, 4), 4, 1, 0);
+		}
+
+		@Setup(Level.Invocation)
+		public void restore(){
+			sprite.restoreImages();
+		}
+	}
+
+	@Setup
+	public void setup(){
+		BenchImages.init();
+		sprite = new Sprite(null, BenchImages.sheet(size, 4), 4, 1, 0);
+		sprite.setXY(300, 300);
+		px = 300 + size / 8;
+		py = 300 - size / 8;
+	}
+
+	@Benchmark
+	public void bite(Bitten b){
+		b.sprite.bite(size / 2, size / 2, size / 4);
+	}
+
+	@Benchmark
+	public boolean isOver(){
+		return sprite.isOver(px, py);
+	}
+}
@@ -0,0 +1,74 @@
+/*
+  Part of the Sprites for Processing library 
+  	http://sprites4processing.lagers.org.uk
+	http://code.google.com/p/sprites4processing/svn/trunk
+
+  Copyright (c) 2009 Peter Lager
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+ */
+
+package sprites.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import sprites.S4P;
+import sprites.Sprite;
+
+/**
+ * Time to update every registered sprite for one frame. The sprites are
+ * moving, animating and bouncing around inside a domain.
+ * 
+ * @author Peter Lager
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UpdateBench {
+
+	@Param({"1000", "10000", "100000"})
+	public int nbrSprites;
+
+	@Setup
+	public void setup(){
+		BenchImages.init();
+		String fname = BenchImages.sheet(16, 4);
+		Random rnd = new Random(1);
+		for(int i = 0; i < nbrSprites; i++){
+			Sprite s = new Sprite(null, fname, 4, 1, i % 4);
+			s.setXY(rnd.nextFloat() * 1024, rnd.nextFloat() * 768);
+			s.setVelXY(rnd.nextFloat() * 200 - 100, rnd.nextFloat() * 200 - 100);
+			s.setDomain(0, 0, 1024, 768, Sprite.REBOUND);
+			s.startImageAnim(0, 3, 0.1f);
+		}
+	}
+
+	@Benchmark
+	public void updateSprites(){
+		S4P.updateSprites(1 / 60.0f);
+	}
+}
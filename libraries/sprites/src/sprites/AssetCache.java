@@ -0,0 +1,280 @@
+/*
+  Part of the Sprites for Processing library 
+  	http://sprites4processing.lagers.org.uk
+	http://code.google.com/p/sprites4processing/svn/trunk
+
+  Copyright (c) 2009 Peter Lager
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+ */
+
+
+package sprites;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import processing.core.PConstants;
+import processing.core.PImage;
+
+/**
+ * A folder of baked sprite sheets. Each file holds the frames of one 
+ * sheet (after the alpha mask has been applied) as raw ARGB pixels 
+ * followed by the collision mask for each frame. Loading a baked sheet 
+ * maps the file into memory and copies the pixels and mask bits 
+ * straight into the frames so no image decoding, slicing or mask 
+ * making is needed. <br>
+ * 
+ * Each file remembers the last modified time and length of the source
+ * image (and alpha mask) so if they are changed the baked file is 
+ * ignored and replaced the next time the sheet is loaded. <br>
+ * 
+ * The cache is normally used through S4P.setAssetCache() and 
+ * S4P.bakeImage().
+ * 
+ * @author Peter Lager
+ *
+ */
+public class AssetCache implements PConstants, SConstants {
+
+	private static final int MAGIC = 0x53345043;	// "S4PC"
+	private static final int VERSION = 1;
+	private static final String EXTENSION = ".s4p";
+
+	private final File folder;
+	private AtomicInteger nbrLoaded = new AtomicInteger();
+	private AtomicInteger nbrBaked = new AtomicInteger();
+	private AtomicInteger nbrStale = new AtomicInteger();
+
+	/**
+	 * Create an asset cache using the folder specified, the folder is 
+	 * created if it does not exist.
+	 * 
+	 * @param folder the folder to hold the baked files
+	 */
+	public AssetCache(File folder){
+		this.folder = folder;
+		folder.mkdirs();
+	}
+
+	/**
+	 * Get the folder used to hold the baked files
+	 */
+	public File getFolder(){
+		return folder;
+	}
+
+	/**
+	 * Get the number of sheets loaded from baked files
+	 */
+	public int getNbrLoaded(){
+		return nbrLoaded.get();
+	}
+
+	/**
+	 * Get the number of sheets baked
+	 */
+	public int getNbrBaked(){
+		return nbrBaked.get();
+	}
+
+	/**
+	 * Get the number of baked files ignored because they were out of date 
+	 * or did not match the sheet requested.
+	 */
+	public int getNbrStale(){
+		return nbrStale.get();
+	}
+
+	/**
+	 * INTERNAL USE ONLY
+	 * Load a sheet from its baked file.
+	 * 
+	 * @param key the image store key for the sheet
+	 * @param src the source image file
+	 * @param srcMask the source alpha mask file or null if none
+	 * @param ncols
+	 * @param nrows
+	 * @return the image details (with frames but no image) or null if 
+	 * there is no up to date baked file
+	 */
+	public ImageInfo load(String key, File src, File srcMask, int ncols, int nrows){
+		File file = cacheFile(key, src);
+		if(!file.isFile())
+			return null;
+		FileInputStream in = null;
+		try {
+			in = new FileInputStream(file);
+			FileChannel channel = in.getChannel();
+			byte[] keyBytes = key.getBytes("UTF-8");
+			int headerSize = 12 + keyBytes.length + 32 + 24;
+			// Check the header before mapping the file so that out of date
+			// files are never mapped and can be replaced
+			ByteBuffer header = ByteBuffer.allocate(headerSize);
+			while(header.hasRemaining() && channel.read(header) >= 0);
+			header.flip();
+			if(header.remaining() < headerSize || header.getInt() != MAGIC 
+					|| header.getInt() != VERSION || header.getInt() != keyBytes.length){
+				nbrStale.incrementAndGet();
+				return null;
+			}
+			byte[] fileKey = new byte[keyBytes.length];
+			header.get(fileKey);
+			if(!key.equals(new String(fileKey, "UTF-8")) 
+					|| header.getLong() != src.lastModified() || header.getLong() != src.length()
+					|| header.getLong() != ((srcMask == null) ? -1 : srcMask.lastModified()) 
+					|| header.getLong() != ((srcMask == null) ? -1 : srcMask.length())
+					|| header.getInt() != ncols || header.getInt() != nrows){
+				nbrStale.incrementAndGet();
+				return null;
+			}
+			int nbrFrames = header.getInt();
+			int fw = header.getInt(), fh = header.getInt();
+			int threshold = header.getInt();
+			int wordsPerRow = (fw + 63) >>> 6;
+			long size = headerSize + (long)nbrFrames * fh * (4L * fw + 8L * wordsPerRow);
+			if(nbrFrames != ncols * nrows || channel.size() != size){
+				nbrStale.incrementAndGet();
+				return null;
+			}
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			buf.position(headerSize);
+			PImage[] frames = new PImage[nbrFrames];
+			for(int f = 0; f < nbrFrames; f++){
+				frames[f] = new PImage(fw, fh, ARGB);
+				frames[f].loadPixels();
+				buf.asIntBuffer().get(frames[f].pixels);
+				buf.position(buf.position() + 4 * fw * fh);
+				frames[f].updatePixels();
+			}
+			CollisionMask[] masks = null;
+			// Masks made with a different alpha level are made again when needed
+			if(threshold == Sprite.ALPHALEVEL){
+				masks = new CollisionMask[nbrFrames];
+				for(int f = 0; f < nbrFrames; f++){
+					long[] bits = new long[wordsPerRow * fh];
+					buf.asLongBuffer().get(bits);
+					buf.position(buf.position() + 8 * bits.length);
+					masks[f] = new CollisionMask(fw, fh, threshold, bits);
+				}
+			}
+			nbrLoaded.incrementAndGet();
+			return new ImageInfo(frames, masks, ncols, nrows);
+		}
+		catch(IOException e){
+			SMessenger.message(ASSET_CACHE_ERROR, this, new Object[] {"read", file, e});
+			return null;
+		}
+		finally {
+			close(in);
+		}
+	}
+
+	/**
+	 * INTERNAL USE ONLY
+	 * Bake a sheet, the file is written to a temporary file first so a 
+	 * partly written file is never used.
+	 * 
+	 * @param info the loaded image details
+	 * @param key the image store key for the sheet
+	 * @param src the source image file
+	 * @param srcMask the source alpha mask file or null if none
+	 * @return true if the baked file was written
+	 */
+	public boolean save(ImageInfo info, String key, File src, File srcMask){
+		PImage[] frames = info.getFrames();
+		if(frames == null || frames.length == 0)
+			return false;
+		CollisionMask[] masks = info.getMasks();
+		File file = cacheFile(key, src);
+		File temp = null;
+		DataOutputStream out = null;
+		try {
+			temp = File.createTempFile("bake", ".tmp", folder);
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 65536));
+			byte[] keyBytes = key.getBytes("UTF-8");
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(keyBytes.length);
+			out.write(keyBytes);
+			out.writeLong(src.lastModified());
+			out.writeLong(src.length());
+			out.writeLong((srcMask == null) ? -1 : srcMask.lastModified());
+			out.writeLong((srcMask == null) ? -1 : srcMask.length());
+			out.writeInt(info.nbrCols);
+			out.writeInt(info.nbrRows);
+			out.writeInt(frames.length);
+			out.writeInt(frames[0].width);
+			out.writeInt(frames[0].height);
+			out.writeInt(masks[0].threshold);
+			for(int f = 0; f < frames.length; f++){
+				frames[f].loadPixels();
+				int[] pixels = frames[f].pixels;
+				for(int p = 0; p < pixels.length; p++)
+					out.writeInt(pixels[p]);
+			}
+			for(int f = 0; f < masks.length; f++){
+				long[] bits = masks[f].bits;
+				for(int b = 0; b < bits.length; b++)
+					out.writeLong(bits[b]);
+			}
+			out.close();
+			out = null;
+			file.delete();
+			if(!temp.renameTo(file))
+				throw new IOException("unable to rename " + temp + " to " + file);
+			nbrBaked.incrementAndGet();
+			return true;
+		}
+		catch(IOException e){
+			SMessenger.message(ASSET_CACHE_ERROR, this, new Object[] {"write", file, e});
+			close(out);
+			if(temp != null)
+				temp.delete();
+			return false;
+		}
+	}
+
+	/*
+	 * The baked file for a sheet is named after the source image with the 
+	 * key's hash code added so different sheets with the same image name
+	 * are kept apart. The key is stored in the file so any hash clash is 
+	 * found when the file is loaded.
+	 */
+	private File cacheFile(String key, File src){
+		String name = src.getName().replaceAll("[^A-Za-z0-9._-]", "_");
+		return new File(folder, name + "_" + Integer.toHexString(key.hashCode()) + EXTENSION);
+	}
+
+	private static void close(Closeable c){
+		if(c != null){
+			try {
+				c.close();
+			} 
+			catch (IOException e) {
+			}
+		}
+	}
+}
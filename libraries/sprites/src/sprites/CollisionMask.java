@@ -0,0 +1,323 @@
+/*
+  Part of the Sprites for Processing library 
+  	http://sprites4processing.lagers.org.uk
+	http://code.google.com/p/sprites4processing/svn/trunk
+
+  Copyright (c) 2009 Peter Lager
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+ */
+
+package sprites;
+
+import processing.core.PImage;
+
+/**
+ * CLASS FOR INTERNAL USE ONLY <br>
+ * 
+ * A 1-bit per pixel collision mask for a single frame. A bit is set if 
+ * the pixel's alpha is at least the threshold (Sprite.ALPHALEVEL when the
+ * mask was made). <br>
+ * 
+ * Each row is packed into longs, pixel x of a row is bit (x % 64) of 
+ * word (x / 64), so 64 pixels can be tested against another mask with a 
+ * single AND. The masks for a sprite sheet are made once and shared by 
+ * all sprites using it.
+ * 
+ * @author Peter Lager
+ *
+ */
+public class CollisionMask {
+
+	public final int width, height;
+	public final int wordsPerRow;
+	public final int threshold;
+	public final long[] bits;
+	// Number of solid pixels in each row and in the whole mask
+	public final int[] rowCounts;
+	public final int area;
+
+	/**
+	 * Create a collision mask from an image
+	 * 
+	 * @param img the frame image
+	 * @param threshold the minimum alpha value for a pixel to collide
+	 */
+	public CollisionMask(PImage img, int threshold){
+		this(img.width, img.height, threshold, makeBits(img, threshold));
+	}
+
+	/**
+	 * Create a collision mask from bits already calculated e.g. read 
+	 * from the asset cache.
+	 * 
+	 * @param width
+	 * @param height
+	 * @param threshold the minimum alpha value used to make the bits
+	 * @param bits the mask bits, ((width + 63) / 64) longs per row
+	 */
+	public CollisionMask(int width, int height, int threshold, long[] bits){
+		this.width = width;
+		this.height = height;
+		this.threshold = threshold;
+		this.bits = bits;
+		wordsPerRow = (width + 63) >>> 6;
+		rowCounts = new int[height];
+		int total = 0;
+		for(int y = 0; y < height; y++){
+			int row = y * wordsPerRow;
+			for(int w = 0; w < wordsPerRow; w++)
+				rowCounts[y] += Long.bitCount(bits[row + w]);
+			total += rowCounts[y];
+		}
+		area = total;
+	}
+
+	private static long[] makeBits(PImage img, int threshold){
+		int wordsPerRow = (img.width + 63) >>> 6;
+		long[] bits = new long[wordsPerRow * img.height];
+		img.loadPixels();
+		int[] pixels = img.pixels;
+		int p = 0;
+		for(int y = 0; y < img.height; y++){
+			int row = y * wordsPerRow;
+			for(int x = 0; x < img.width; x++, p++){
+				if((pixels[p] >>> 24) >= threshold)
+					bits[row + (x >>> 6)] |= 1L << (x & 63);
+			}
+		}
+		return bits;
+	}
+
+	/**
+	 * Make a mask for each of the frames
+	 * 
+	 * @param frames
+	 * @param threshold the minimum alpha value for a pixel to collide
+	 * @return an array of masks
+	 */
+	public static CollisionMask[] makeMasks(PImage[] frames, int threshold){
+		CollisionMask[] masks = new CollisionMask[frames.length];
+		for(int f = 0; f < frames.length; f++)
+			masks[f] = new CollisionMask(frames[f], threshold);
+		return masks;
+	}
+
+	/**
+	 * Is the pixel solid?
+	 * 
+	 * @param x
+	 * @param y
+	 * @return true if the pixel is inside the mask and solid
+	 */
+	public boolean isSolid(int x, int y){
+		if(x < 0 || y < 0 || x >= width || y >= height)
+			return false;
+		return (bits[y * wordsPerRow + (x >>> 6)] & (1L << (x & 63))) != 0;
+	}
+
+	/**
+	 * Get up to 64 bits from a row starting at any pixel. Bits past the
+	 * end of the row are zero.
+	 * 
+	 * @param y the row
+	 * @param x the first pixel
+	 * @return the pixels x to x+63 as bits 0 to 63
+	 */
+	public long getBits(int y, int x){
+		int w = x >>> 6;
+		int shift = x & 63;
+		int row = y * wordsPerRow;
+		long b = bits[row + w] >>> shift;
+		if(shift != 0 && w + 1 < wordsPerRow)
+			b |= bits[row + w + 1] << (64 - shift);
+		return b;
+	}
+
+	/**
+	 * Find the first solid pixel shared by two masks within an overlap 
+	 * region, searching row by row. <br>
+	 * The region is w x h pixels starting at ax,ay in mask A and bx,by in
+	 * mask B and must be inside both masks.
+	 * 
+	 * @param maskA
+	 * @param ax
+	 * @param ay
+	 * @param maskB
+	 * @param bx
+	 * @param by
+	 * @param w width of region
+	 * @param h height of region
+	 * @return -1 if there is no shared solid pixel else the position of the 
+	 * first one found relative to the top-left of the region as (y << 32 | x)
+	 */
+	public static long firstOverlap(CollisionMask maskA, int ax, int ay, 
+			CollisionMask maskB, int bx, int by, int w, int h){
+		for(int r = 0; r < h; r++){
+			for(int c = 0; c < w; c += 64){
+				long m = maskA.getBits(ay + r, ax + c) & maskB.getBits(by + r, bx + c);
+				int n = w - c;
+				if(n < 64)
+					m &= (1L << n) - 1;
+				if(m != 0)
+					return ((long)r << 32) | (c + Long.numberOfTrailingZeros(m));
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Count the solid pixels shared by two masks within an overlap region. 
+	 * <br>
+	 * The region is w x h pixels starting at ax,ay in mask A and bx,by in
+	 * mask B and must be inside both masks. <br>
+	 * If needed is greater than zero counting stops as soon as the count
+	 * reaches needed, or when the solid pixels left in the remaining rows 
+	 * are too few for it to do so. In that case the value returned is only 
+	 * good for comparing with needed.
+	 * 
+	 * @param maskA
+	 * @param ax
+	 * @param ay
+	 * @param maskB
+	 * @param bx
+	 * @param by
+	 * @param w width of region
+	 * @param h height of region
+	 * @param needed the count of interest or <= 0 to count every pixel
+	 * @return the number of shared solid pixels
+	 */
+	public static int overlapCount(CollisionMask maskA, int ax, int ay, 
+			CollisionMask maskB, int bx, int by, int w, int h, int needed){
+		// Most shared pixels there could be in the rows not yet counted
+		int remaining = 0;
+		if(needed > 0){
+			for(int r = 0; r < h; r++)
+				remaining += rowLimit(maskA, ay + r, maskB, by + r, w);
+			if(remaining < needed)
+				return 0;
+		}
+		int count = 0;
+		for(int r = 0; r < h; r++){
+			for(int c = 0; c < w; c += 64){
+				long m = maskA.getBits(ay + r, ax + c) & maskB.getBits(by + r, bx + c);
+				int n = w - c;
+				if(n < 64)
+					m &= (1L << n) - 1;
+				count += Long.bitCount(m);
+			}
+			if(needed > 0){
+				remaining -= rowLimit(maskA, ay + r, maskB, by + r, w);
+				if(count >= needed || count + remaining < needed)
+					return count;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Measure the overlap of the solid pixels of two masks within a region 
+	 * in a single pass. <br>
+	 * The region is w x h pixels starting at ax,ay in mask A and bx,by in
+	 * mask B and must be inside both masks. <br>
+	 * The contact's count, bounding box and centroid are set in mask A 
+	 * pixel coordinates. normalX/Y are set to the (unnormalised) vector 
+	 * from the centre of A's solid pixels to the centre of B's solid pixels 
+	 * in the region.
+	 * 
+	 * @param maskA
+	 * @param ax
+	 * @param ay
+	 * @param maskB
+	 * @param bx
+	 * @param by
+	 * @param w width of region
+	 * @param h height of region
+	 * @param contact the contact to fill
+	 */
+	public static void fillContact(CollisionMask maskA, int ax, int ay, 
+			CollisionMask maskB, int bx, int by, int w, int h, Contact contact){
+		long count = 0, sumX = 0, sumY = 0;
+		long countA = 0, sumAX = 0, sumAY = 0;
+		long countB = 0, sumBX = 0, sumBY = 0;
+		int left = Integer.MAX_VALUE, right = -1, top = -1, bottom = -1;
+		for(int r = 0; r < h; r++){
+			for(int c = 0; c < w; c += 64){
+				long ma = maskA.getBits(ay + r, ax + c);
+				long mb = maskB.getBits(by + r, bx + c);
+				int n = w - c;
+				if(n < 64){
+					ma &= (1L << n) - 1;
+					mb &= (1L << n) - 1;
+				}
+				int na = Long.bitCount(ma), nb = Long.bitCount(mb);
+				countA += na;
+				sumAX += (long)c * na + bitPositionSum(ma);
+				sumAY += (long)r * na;
+				countB += nb;
+				sumBX += (long)c * nb + bitPositionSum(mb);
+				sumBY += (long)r * nb;
+				long m = ma & mb;
+				if(m == 0)
+					continue;
+				int nm = Long.bitCount(m);
+				count += nm;
+				sumX += (long)c * nm + bitPositionSum(m);
+				sumY += (long)r * nm;
+				left = Math.min(left, c + Long.numberOfTrailingZeros(m));
+				right = Math.max(right, c + 64 - Long.numberOfLeadingZeros(m));
+				if(top < 0)
+					top = r;
+				bottom = r + 1;
+			}
+		}
+		contact.count = (int) count;
+		if(count == 0)
+			return;
+		contact.left = ax + left;
+		contact.right = ax + right;
+		contact.top = ay + top;
+		contact.bottom = ay + bottom;
+		// Centroids are at pixel centres
+		contact.centroidX = ax + 0.5f + (float)sumX / count;
+		contact.centroidY = ay + 0.5f + (float)sumY / count;
+		contact.normalX = (float)sumBX / countB - (float)sumAX / countA;
+		contact.normalY = (float)sumBY / countB - (float)sumAY / countA;
+	}
+
+	// Selects the bits whose position has bit k set
+	private static final long[] POSITION_BITS = {
+		0xAAAAAAAAAAAAAAAAL, 0xCCCCCCCCCCCCCCCCL, 0xF0F0F0F0F0F0F0F0L,
+		0xFF00FF00FF00FF00L, 0xFFFF0000FFFF0000L, 0xFFFFFFFF00000000L
+	};
+
+	/*
+	 * The sum of the positions (0-63) of the set bits
+	 */
+	private static long bitPositionSum(long m){
+		long sum = 0;
+		for(int k = 0; k < 6; k++)
+			sum += (long)Long.bitCount(m & POSITION_BITS[k]) << k;
+		return sum;
+	}
+
+	/*
+	 * The most solid pixels that two rows can share in a span of w pixels
+	 */
+	private static int rowLimit(CollisionMask maskA, int ya, CollisionMask maskB, int yb, int w){
+		return Math.min(w, Math.min(maskA.rowCounts[ya], maskB.rowCounts[yb]));
+	}
+}
@@ -0,0 +1,166 @@
+/*
+  Part of the Sprites for Processing library 
+  	http://sprites4processing.lagers.org.uk
+	http://code.google.com/p/sprites4processing/svn/trunk
+
+  Copyright (c) 2009 Peter Lager
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+ */
+
+
+package sprites;
+
+import java.util.Arrays;
+
+/**
+ * The results of testing a list of sprite pairs with S4P.testPairs(). <br>
+ * 
+ * Result i is for pair i of the list tested. The arrays are only grown when 
+ * more pairs are tested than ever before so the same object can be reused 
+ * every frame without creating garbage. <br>
+ * 
+ * Nothing is changed in the sprites when the pairs are tested, use 
+ * S4P.applyResults() to set the hit positions and time of impact in the 
+ * sprites afterwards.
+ * 
+ * @author Peter Lager
+ *
+ */
+public class CollisionResults {
+
+	protected int method;
+	protected int size = 0;
+	protected boolean[] hit;
+	protected long[] hitXY;
+	protected float[] toi;
+
+	/**
+	 * Create a result buffer
+	 * 
+	 * @param capacity the number of pairs expected
+	 */
+	public CollisionResults(int capacity){
+		capacity = Math.max(capacity, 16);
+		hit = new boolean[capacity];
+		hitXY = new long[capacity];
+		toi = new float[capacity];
+	}
+
+	/**
+	 * INTERNAL USE ONLY <br>
+	 * Prepare for testing a number of pairs.
+	 * 
+	 * @param n number of pairs
+	 * @param method the collision method to be used
+	 */
+	protected void reset(int n, int method){
+		if(n > hit.length){
+			int capacity = n + n / 4;
+			hit = new boolean[capacity];
+			hitXY = new long[capacity];
+			toi = new float[capacity];
+		}
+		Arrays.fill(hit, 0, n, false);
+		this.method = method;
+		size = n;
+	}
+
+	/**
+	 * Get the number of pairs tested
+	 */
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * Get the collision method used
+	 */
+	public int getMethod(){
+		return method;
+	}
+
+	/**
+	 * Did the pair collide?
+	 * 
+	 * @param i index of the pair
+	 */
+	public boolean isHit(int i){
+		return hit[i];
+	}
+
+	/**
+	 * Count the number of pairs that collided.
+	 */
+	public int nbrHits(){
+		int n = 0;
+		for(int i = 0; i < size; i++)
+			if(hit[i])
+				n++;
+		return n;
+	}
+
+	/**
+	 * Get the x position of the hit in the first sprite's image for pixel 
+	 * level collision.
+	 * 
+	 * @param i index of the pair
+	 */
+	public int getHitAX(int i){
+		return (int)(hitXY[i] >>> 48) & 0xffff;
+	}
+
+	/**
+	 * Get the y position of the hit in the first sprite's image for pixel 
+	 * level collision.
+	 * 
+	 * @param i index of the pair
+	 */
+	public int getHitAY(int i){
+		return (int)(hitXY[i] >>> 32) & 0xffff;
+	}
+
+	/**
+	 * Get the x position of the hit in the second sprite's image for pixel 
+	 * level collision.
+	 * 
+	 * @param i index of the pair
+	 */
+	public int getHitBX(int i){
+		return (int)(hitXY[i] >>> 16) & 0xffff;
+	}
+
+	/**
+	 * Get the y position of the hit in the second sprite's image for pixel 
+	 * level collision.
+	 * 
+	 * @param i index of the pair
+	 */
+	public int getHitBY(int i){
+		return (int)hitXY[i] & 0xffff;
+	}
+
+	/**
+	 * Get the time of impact if either sprite uses continuous collision 
+	 * detection.
+	 * 
+	 * @param i index of the pair
+	 * @return the time of impact (0-1) or -1 if not a swept test
+	 */
+	public float getTimeOfImpact(int i){
+		return toi[i];
+	}
+}
@@ -0,0 +1,101 @@
+/*
+  Part of the Sprites for Processing library 
+  	http://sprites4processing.lagers.org.uk
+	http://code.google.com/p/sprites4processing/svn/trunk
+
+  Copyright (c) 2009 Peter Lager
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+ */
+
+package sprites;
+
+/**
+ * Describes the region where two sprites' solid pixels overlap, filled by
+ * Sprite.pp_contact(). <br>
+ * 
+ * Image positions are pixel positions in spriteA's current frame unless
+ * stated otherwise. The same object can be reused for every test so no 
+ * garbage is created. <br>
+ * 
+ * The contact normal is an approximation, it is the direction from the 
+ * centre of spriteA's solid pixels to the centre of spriteB's solid pixels
+ * in the area around the overlap. If these are less than a pixel apart 
+ * the direction between the sprites' centres is used.
+ * 
+ * @author Peter Lager
+ *
+ */
+public class Contact {
+
+	public Sprite spriteA, spriteB;
+	// Number of overlapping solid pixels, 0 if there is no contact
+	public int count;
+	// Bounding box of the overlap in spriteA's image (right and bottom exclusive)
+	public int left, top, right, bottom;
+	// Centroid of the overlap in spriteA's and spriteB's images
+	public float centroidX, centroidY;
+	public float centroidBX, centroidBY;
+	// Centroid of the overlap in world coordinates
+	public float worldX, worldY;
+	// Unit vector in world coordinates pointing from spriteA towards spriteB
+	public float normalX, normalY;
+
+	/**
+	 * Create an empty contact
+	 */
+	public Contact() {
+		reset();
+	}
+
+	/**
+	 * Clear the contact so it shows no overlap
+	 */
+	public void reset(){
+		spriteA = spriteB = null;
+		count = 0;
+		left = top = right = bottom = 0;
+		centroidX = centroidY = centroidBX = centroidBY = 0;
+		worldX = worldY = 0;
+		normalX = normalY = 0;
+	}
+
+	/**
+	 * Is there any overlap?
+	 */
+	public boolean isEmpty(){
+		return count == 0;
+	}
+
+	/**
+	 * Get the width of the overlap bounding box in spriteA image pixels
+	 */
+	public int getWidth(){
+		return right - left;
+	}
+
+	/**
+	 * Get the height of the overlap bounding box in spriteA image pixels
+	 */
+	public int getHeight(){
+		return bottom - top;
+	}
+
+	public String toString(){
+		return "[" + count + " pixels, box " + left + "," + top + " - " + right + "," + bottom
+				+ ", centroid " + worldX + "," + worldY + ", normal " + normalX + "," + normalY + "]";
+	}
+}
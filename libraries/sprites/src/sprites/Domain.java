@@ -31,6 +31,8 @@ package sprites;
  * restrict the sprite's movement attempting to leave the domain will
  * cause it to either 'bounce' back or halt. <br>
  * 
+ * A Domain can also be used to define the area of a TriggerZone. <br>
+ * 
  * @author Peter Lager
  *
  */
@@ -39,6 +39,16 @@ public class ImageInfo {
 	public int nbrCols;
 	public PImage image;
 	public PImage alphaMask;
+	// Frames and collision masks shared by all sprites using this image
+	protected PImage[] frames = null;
+	protected CollisionMask[] masks = null;
+	// Where each frame is in the texture atlas (null if not in the atlas)
+	protected TextureAtlas.Region[] regions = null;
+	// False while the image is being loaded in the background
+	private volatile boolean ready = true;
+	// The number of sprites and particle fields using this image, it can
+	// only be removed from the image store when this is zero
+	protected int refCount = 0;
 	
 	/**
 	 * INTERNAL USE ONLY
@@ -67,4 +77,156 @@ public class ImageInfo {
 		nbrCols = c;
 	}
 
+	/**
+	 * INTERNAL USE ONLY
+	 * Create the details for an image that will be loaded in the background.
+	 * It is not ready until imageLoaded() has been called.
+	 * @param c
+	 * @param r
+	 */
+	public ImageInfo(int c, int r){
+		image = null;
+		alphaMask = null;
+		nbrRows = r;
+		nbrCols = c;
+		ready = false;
+	}
+
+	/**
+	 * INTERNAL USE ONLY
+	 * Create the details for a sheet read from the asset cache, there is
+	 * no image just the frames and (optionally) the collision masks.
+	 * @param frames
+	 * @param masks null if they have to be made from the frames
+	 * @param c
+	 * @param r
+	 */
+	public ImageInfo(PImage[] frames, CollisionMask[] masks, int c, int r){
+		image = null;
+		alphaMask = null;
+		this.frames = frames;
+		this.masks = masks;
+		nbrRows = r;
+		nbrCols = c;
+	}
+
+	/**
+	 * Returns true if the image has been loaded and its frames are ready
+	 * to use. This is always true unless the image is being loaded in the 
+	 * background.
+	 */
+	public boolean isReady(){
+		return ready;
+	}
+
+	/**
+	 * Returns true if the image is ready and was loaded successfully (from
+	 * the image file or the asset cache).
+	 */
+	public boolean isLoaded(){
+		return ready && (image != null || frames != null);
+	}
+
+	/**
+	 * Returns true if the image could not be loaded, i.e. 
+	 * isReady() && !isLoaded(). The reason is reported when the load fails 
+	 * (see SConstants.IMAGE_LOAD_ERROR). Failed images are not kept, the 
+	 * next sprite created with the same file tries to load it again.
+	 */
+	public boolean isFailed(){
+		return ready && image == null && frames == null;
+	}
+
+	/**
+	 * INTERNAL USE ONLY
+	 * Called by the background loader thread when the image has been 
+	 * loaded. The frames and collision masks are made (unless they came 
+	 * from the asset cache) before this is marked as ready so this work 
+	 * is not done on the animation thread.
+	 * 
+	 * @param loaded the loaded image details or null if it could not be loaded
+	 */
+	public void imageLoaded(ImageInfo loaded){
+		try {
+			if(loaded != null && loaded.isLoaded()){
+				image = loaded.image;
+				alphaMask = loaded.alphaMask;
+				frames = loaded.getFrames();
+				masks = loaded.getMasks();
+			}
+		}
+		finally {
+			synchronized(this){
+				ready = true;
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * INTERNAL USE ONLY
+	 * Get the frames sliced from the image, they are made the first time 
+	 * this is called and then shared by all sprites using this image so 
+	 * must not be changed. <br>
+	 * If the image is being loaded in the background this waits until it 
+	 * is ready.
+	 * 
+	 * @return the frames or null if the image could not be loaded
+	 */
+	public synchronized PImage[] getFrames(){
+		while(!ready){
+			try {
+				wait();
+			} 
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return null;
+			}
+		}
+		if(frames == null && image != null)
+			frames = S4P.getFrames(this);
+		return frames;
+	}
+
+	/**
+	 * Get the number of sprites and particle fields using this image
+	 */
+	public int getRefCount(){
+		return refCount;
+	}
+
+	/**
+	 * Get the approximate number of bytes used by the image, alpha mask,
+	 * frames and collision masks.
+	 */
+	public long getBytes(){
+		long bytes = 0;
+		if(image != null)
+			bytes += 4L * image.width * image.height;
+		if(alphaMask != null)
+			bytes += 4L * alphaMask.width * alphaMask.height;
+		PImage[] f = frames;
+		if(f != null)
+			for(int i = 0; i < f.length; i++)
+				bytes += 4L * f[i].width * f[i].height;
+		CollisionMask[] m = masks;
+		if(m != null)
+			for(int i = 0; i < m.length; i++)
+				bytes += 8L * m[i].bits.length + 4L * m[i].rowCounts.length;
+		return bytes;
+	}
+
+	/**
+	 * INTERNAL USE ONLY
+	 * Get the collision masks for the frames, they are made the first time
+	 * this is called or if Sprite.ALPHALEVEL has been changed.
+	 * 
+	 * @return the collision mask for each frame
+	 */
+	public synchronized CollisionMask[] getMasks(){
+		if(masks == null || masks[0].threshold != Sprite.ALPHALEVEL)
+			masks = CollisionMask.makeMasks(getFrames(), Sprite.ALPHALEVEL);
+		return masks;
+	}
+
 }
@@ -0,0 +1,535 @@
+/*
+  Part of the Sprites for Processing library 
+  	http://sprites4processing.lagers.org.uk
+	http://code.google.com/p/sprites4processing/svn/trunk
+
+  Copyright (c) 2009 Peter Lager
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+ */
+
+package sprites;
+
+import processing.core.PApplet;
+import processing.core.PConstants;
+import processing.core.PImage;
+
+/**
+ * This class is a lightweight alternative to Sprite for large numbers of
+ * small, short lived objects such as sparks, smoke or debris. <br>
+ * 
+ * All particles in a field share the same image frames and the state of 
+ * each particle is stored in arrays of primitives (one element per particle) 
+ * rather than in individual objects, so hundreds of thousands of particles 
+ * can be updated every frame. <br>
+ * 
+ * Particles can be given a life time in seconds after which they are 
+ * removed, and the field can be given a Domain which behaves in the same
+ * way as a Sprite's domain (REBOUND or HALT). <br>
+ * 
+ * Particles do not take part in collision detection or mouse events. Call
+ * update() after S4P.updateTime() and draw() from your sketch's draw() 
+ * method. <br>
+ * 
+ * The arrays are public for speed, only the first <i>size()</i> elements
+ * hold live particles. Particles are not kept in any particular order, 
+ * killing a particle moves the last particle into its place.
+ * 
+ * @author Peter Lager
+ *
+ */
+public class ParticleField implements PConstants {
+
+	public PApplet app;
+
+	// Particle state - one element per particle
+	public final float[] x, y;			// World position
+	public final float[] vx, vy;		// Velocities
+	public final float[] ax, ay;		// Acceleration
+	public final float[] rot;			// Rotation (radians)
+	public final float[] scale;
+	public final int[] frame;			// current frame to display
+	public final float[] life;			// seconds to live
+
+	protected int capacity;
+	protected int nbrParticles = 0;
+
+	protected PImage[] frames;
+	protected ImageInfo info;
+	private boolean disposed = false;
+	// True until the image being loaded in the background is ready
+	protected boolean loading = false;
+	protected float width, height;
+
+	protected Domain domain = null;
+	protected int domainAction = Sprite.REBOUND;
+
+	// Image animation shared by all particles
+	protected float animInterval = 0.0f;
+	protected float animTime = 0.0f;
+	protected int frameBegin = 0;
+	protected int frameEnd = 0;
+
+	protected boolean visible = true;
+
+	/**
+	 * Create a particle field based on an image file. 
+	 * 
+	 * @param theApplet
+	 * @param imageFname
+	 * @param capacity the maximum number of particles
+	 */
+	public ParticleField(PApplet theApplet, String imageFname, int capacity){
+		this(theApplet, S4P.getImageInfo(theApplet, imageFname, 1, 1), capacity);
+	}
+
+	/**
+	 * Create a particle field based on an image file. <br>
+	 * The actual image can be made up of a number of tiled pictures. <br>
+	 * For animation purposes the images should be ordered left to 
+	 * right, top to bottom.
+	 * 
+	 * @param theApplet
+	 * @param imageFname
+	 * @param cols
+	 * @param rows
+	 * @param capacity the maximum number of particles
+	 */
+	public ParticleField(PApplet theApplet, String imageFname, int cols, int rows, int capacity){
+		this(theApplet, S4P.getImageInfo(theApplet, imageFname, cols, rows), capacity);
+	}
+
+	/**
+	 * Create a particle field based on an image file and an alphaMask file. <br>
+	 * The actual image can be made up of a number of tiled pictures. <br>
+	 * For animation purposes the images should be ordered left to 
+	 * right, top to bottom.
+	 * 
+	 * @param theApplet
+	 * @param imageFname
+	 * @param alphaFname
+	 * @param cols
+	 * @param rows
+	 * @param capacity the maximum number of particles
+	 */
+	public ParticleField(PApplet theApplet, String imageFname, String alphaFname, int cols, int rows, int capacity){
+		this(theApplet, S4P.getImageInfo(theApplet, imageFname, alphaFname, cols, rows), capacity);
+	}
+
+	/**
+	 * INETRNAL USE ONLY
+	 * Core coding for ctors
+	 * 
+	 * @param theApplet
+	 * @param info
+	 * @param capacity
+	 */
+	private ParticleField(PApplet theApplet, ImageInfo info, int capacity){
+		app = theApplet;
+		this.info = info;
+		S4P.acquireImage(info);
+		this.capacity = capacity;
+		// If the image is being loaded in the background the frames are 
+		// set up when it is ready (see checkLoaded())
+		if(!info.isLoaded() || !initFrames())
+			loading = true;
+		x = new float[capacity];
+		y = new float[capacity];
+		vx = new float[capacity];
+		vy = new float[capacity];
+		ax = new float[capacity];
+		ay = new float[capacity];
+		rot = new float[capacity];
+		scale = new float[capacity];
+		frame = new int[capacity];
+		life = new float[capacity];
+	}
+
+	/*
+	 * Use the frames from the image and set the particle size from them.
+	 * Returns false if there are no frames to use.
+	 */
+	private boolean initFrames(){
+		PImage[] f = info.getFrames();
+		if(f == null)
+			return false;
+		frames = f;
+		width = frames[0].width;
+		height = frames[0].height;
+		constrainAnimFrames();
+		return true;
+	}
+
+	/**
+	 * INTERNAL USE ONLY <br>
+	 * If the image was being loaded in the background and is now ready 
+	 * then set up the frames.
+	 * 
+	 * @return true if the field's frames are ready
+	 */
+	protected boolean checkLoaded(){
+		if(loading && info.isLoaded() && initFrames())
+			loading = false;
+		return !loading;
+	}
+
+	/**
+	 * Returns true if the field's image is still being loaded in the 
+	 * background. Until it is ready no particles can be spawned and 
+	 * nothing is drawn. <br>
+	 * If the image could not be loaded this stays true, use 
+	 * isLoadFailed() to find out if that happened.
+	 */
+	public boolean isLoading(){
+		return !checkLoaded();
+	}
+
+	/**
+	 * Returns true if the field's image could not be loaded. The field 
+	 * will never be ready so it should be disposed of.
+	 */
+	public boolean isLoadFailed(){
+		return loading && info.isFailed();
+	}
+
+	/**
+	 * Add a particle that lives until it is killed.
+	 * 
+	 * @param px x position
+	 * @param py y position
+	 * @param pvx x velocity
+	 * @param pvy y velocity
+	 * @return the particle index or -1 if the field is full or still loading
+	 */
+	public int spawn(float px, float py, float pvx, float pvy){
+		return spawn(px, py, pvx, pvy, 0, 0, Float.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * Add a particle.
+	 * 
+	 * @param px x position
+	 * @param py y position
+	 * @param pvx x velocity
+	 * @param pvy y velocity
+	 * @param pax x acceleration
+	 * @param pay y acceleration
+	 * @param lifeTime seconds before the particle is removed
+	 * @return the particle index or -1 if the field is full or still loading
+	 */
+	public int spawn(float px, float py, float pvx, float pvy, float pax, float pay, float lifeTime){
+		if(nbrParticles == capacity || (loading && !checkLoaded()))
+			return -1;
+		int i = nbrParticles++;
+		x[i] = px;
+		y[i] = py;
+		vx[i] = pvx;
+		vy[i] = pvy;
+		ax[i] = pax;
+		ay[i] = pay;
+		rot[i] = 0;
+		scale[i] = 1.0f;
+		frame[i] = frameBegin;
+		life[i] = lifeTime;
+		return i;
+	}
+
+	/**
+	 * Remove a particle, the last particle is moved to take its place.
+	 * @param i the particle index
+	 */
+	public void kill(int i){
+		if(i < 0 || i >= nbrParticles)
+			return;
+		int last = --nbrParticles;
+		x[i] = x[last];
+		y[i] = y[last];
+		vx[i] = vx[last];
+		vy[i] = vy[last];
+		ax[i] = ax[last];
+		ay[i] = ay[last];
+		rot[i] = rot[last];
+		scale[i] = scale[last];
+		frame[i] = frame[last];
+		life[i] = life[last];
+	}
+
+	/**
+	 * Remove all particles
+	 */
+	public void clear(){
+		nbrParticles = 0;
+	}
+
+	/**
+	 * Remove all particles and stop using the image so it can be removed
+	 * from the image store. The particle field is hidden and should not be
+	 * used afterwards.
+	 */
+	public void dispose(){
+		nbrParticles = 0;
+		visible = false;
+		if(!disposed){
+			disposed = true;
+			S4P.releaseImage(info);
+		}
+	}
+
+	/**
+	 * Get the number of live particles
+	 */
+	public int size(){
+		return nbrParticles;
+	}
+
+	/**
+	 * Get the maximum number of particles
+	 */
+	public int getCapacity(){
+		return capacity;
+	}
+
+	/**
+	 * Update all particles using S4P.deltaTime
+	 */
+	public void update(){
+		update(S4P.deltaTime);
+	}
+
+	/**
+	 * Update the position, life and image of every particle.
+	 * 
+	 * @param deltaTime the time in seconds since last called
+	 */
+	public void update(float deltaTime){
+		int n = nbrParticles;
+		final float[] x = this.x, y = this.y, vx = this.vx, vy = this.vy;
+		final float[] ax = this.ax, ay = this.ay, life = this.life;
+		// Motion
+		for(int i = 0; i < n; i++){
+			vx[i] += ax[i] * deltaTime;
+			vy[i] += ay[i] * deltaTime;
+			x[i] += vx[i] * deltaTime;
+			y[i] += vy[i] * deltaTime;
+		}
+		for(int i = 0; i < n; i++)
+			life[i] -= deltaTime;
+		if(domain != null)
+			applyDomain();
+		updateImageAnimation(deltaTime);
+		// Remove expired particles, go backwards so the particle
+		// moved into an empty slot has already been checked
+		for(int i = nbrParticles - 1; i >= 0; i--)
+			if(life[i] <= 0.0f)
+				kill(i);
+	}
+
+	/*
+	 * Keep particles inside the domain using the same rules as Sprite
+	 */
+	private void applyDomain(){
+		int n = nbrParticles;
+		float hw, hh;
+		Domain d = domain;
+		boolean rebound = (domainAction == Sprite.REBOUND);
+		for(int i = 0; i < n; i++){
+			hw = width * scale[i] / 2;
+			hh = height * scale[i] / 2;
+			if(x[i] - hw < d.left){
+				x[i] = d.left + hw;
+				if(rebound){
+					vx[i] = -vx[i];
+					ax[i] = -ax[i];
+				}
+				else
+					vx[i] = ax[i] = 0;
+			}
+			else if(x[i] + hw > d.right){
+				x[i] = d.right - hw;
+				if(rebound){
+					vx[i] = -vx[i];
+					ax[i] = -ax[i];
+				}
+				else
+					vx[i] = ax[i] = 0;
+			}
+			if(y[i] - hh < d.top){
+				y[i] = d.top + hh;
+				if(rebound){
+					vy[i] = -vy[i];
+					ay[i] = -ay[i];
+				}
+				else
+					vy[i] = ay[i] = 0;
+			}
+			else if(y[i] + hh > d.bottom){
+				y[i] = d.bottom - hh;
+				if(rebound){
+					vy[i] = -vy[i];
+					ay[i] = -ay[i];
+				}
+				else
+					vy[i] = ay[i] = 0;
+			}
+		}
+	}
+
+	/*
+	 * Advance every particle's frame each time the animation interval passes
+	 */
+	private void updateImageAnimation(float deltaTime){
+		if(animInterval <= 0.0f)
+			return;
+		animTime += deltaTime;
+		int steps = 0;
+		while(animTime > animInterval){
+			animTime -= animInterval;
+			steps++;
+		}
+		if(steps == 0)
+			return;
+		int range = frameEnd - frameBegin + 1;
+		int n = nbrParticles;
+		for(int i = 0; i < n; i++)
+			frame[i] = frameBegin + (frame[i] - frameBegin + steps) % range;
+	}
+
+	/**
+	 * Animate all particles through some or all of the frames. Animation
+	 * is repeated indefinitely, each particle keeps its own current frame.
+	 * 
+	 * @param firstFrame start with this frame
+	 * @param lastFrame go back to firstFrame after this frame
+	 * @param interval time in seconds between frames
+	 */
+	public void startImageAnim(int firstFrame, int lastFrame, float interval){
+		frameBegin = Math.min(firstFrame, lastFrame);
+		frameEnd = Math.max(firstFrame, lastFrame);
+		// If still loading this is done when the frames are ready
+		if(frames != null)
+			constrainAnimFrames();
+		animInterval = interval;
+		animTime = 0.0f;
+		for(int i = 0; i < nbrParticles; i++)
+			frame[i] = PApplet.constrain(frame[i], frameBegin, frameEnd);
+	}
+
+	/*
+	 * Keep the animation range inside the available frames
+	 */
+	private void constrainAnimFrames(){
+		frameBegin = PApplet.constrain(frameBegin, 0, frames.length - 1);
+		frameEnd = PApplet.constrain(frameEnd, 0, frames.length - 1);
+	}
+
+	/**
+	 * Stop the image animation
+	 */
+	public void stopImageAnim(){
+		animInterval = 0.0f;
+	}
+
+	/**
+	 * Draw all particles that are on screen.
+	 */
+	public void draw(){
+		if(!visible || nbrParticles == 0 || app == null || loading)
+			return;
+		Domain sd = S4P.screenDomain;
+		float hw, hh;
+		app.pushMatrix();
+		app.scale(S4P.worldScale);
+		app.translate(-S4P.worldX, -S4P.worldY);
+		app.imageMode(CENTER);
+		TextureAtlas.Region[] regions = info.regions;
+		for(int i = 0; i < nbrParticles; i++){
+			hw = width * scale[i];
+			hh = height * scale[i];
+			if(x[i] + hw < sd.left || x[i] - hw > sd.right 
+					|| y[i] + hh < sd.top || y[i] - hh > sd.bottom)
+				continue;
+			if(rot[i] == 0){
+				if(regions != null)
+					regions[frame[i]].draw(app, x[i], y[i], hw, hh);
+				else
+					app.image(frames[frame[i]], x[i], y[i], hw, hh);
+			}
+			else {
+				app.pushMatrix();
+				app.translate(x[i], y[i]);
+				app.rotate(rot[i]);
+				if(regions != null)
+					regions[frame[i]].draw(app, 0, 0, hw, hh);
+				else
+					app.image(frames[frame[i]], 0, 0, hw, hh);
+				app.popMatrix();
+			}
+		}
+		app.popMatrix();
+	}
+
+	/**
+	 * Set the movement domain for all particles. The last attribute defines 
+	 * what happens to a particle when it reaches the domain boundary, the 
+	 * options are the same as for Sprite (REBOUND and HALT).
+	 * 
+	 * @param domain
+	 * @param action
+	 */
+	public void setDomain(Domain domain, int action){
+		this.domain = domain;
+		domainAction = action;
+	}
+
+	/**
+	 * Removes the current domain so particle movement is no
+	 * longer constrained.
+	 */
+	public void clearDomain(){
+		domain = null;
+		domainAction = Sprite.REBOUND;
+	}
+
+	/**
+	 * Get the width of the particle image (unscaled)
+	 */
+	public float getWidth(){
+		return width;
+	}
+
+	/**
+	 * Get the height of the particle image (unscaled)
+	 */
+	public float getHeight(){
+		return height;
+	}
+
+	/**
+	 * Set the visibility of all particles
+	 * 
+	 * @param visible
+	 */
+	public void setVisible(boolean visible){
+		this.visible = visible;
+	}
+
+	/**
+	 * Are the particles visible?
+	 */
+	public boolean isVisible(){
+		return visible;
+	}
+}
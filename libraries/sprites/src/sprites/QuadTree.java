@@ -0,0 +1,352 @@
+/*
+  Part of the Sprites for Processing library 
+  	http://sprites4processing.lagers.org.uk
+	http://code.google.com/p/sprites4processing/svn/trunk
+
+  Copyright (c) 2009 Peter Lager
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+ */
+
+package sprites;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * CLASS FOR INTERNAL USE ONLY <br>
+ * 
+ * A dynamic loose quadtree holding the world bounding boxes of all
+ * registered sprites. It is used by S4P to cull sprites that are off 
+ * screen and for area and point queries. <br>
+ * 
+ * In a loose quadtree each node accepts any sprite whose centre lies
+ * inside the node and whose half size is no bigger than the node's half 
+ * size, so a sprite only has to be moved to another node when its centre
+ * leaves the node it is in. The tree grows upwards if a sprite moves 
+ * outside the area covered by the root node.
+ * 
+ * @author Peter Lager
+ *
+ */
+public class QuadTree {
+
+	// Nodes are not subdivided below this half size (world units)
+	private static final float MIN_HALF_SIZE = 8.0f;
+	// Limit on the number of times the root can double in size for one sprite
+	private static final int MAX_GROWTH = 24;
+
+	private Node root = null;
+	private int size = 0;
+
+	/**
+	 * INTERNAL USE ONLY
+	 * A node in the tree covering the square cx-half to cx+half, cy-half
+	 * to cy+half. The loose bounds are twice this size.
+	 */
+	static class Node {
+		final float cx, cy, half;
+		Node parent;
+		Node[] child = null;
+		ArrayList<Sprite> items = new ArrayList<Sprite>();
+
+		Node(Node parent, float cx, float cy, float half){
+			this.parent = parent;
+			this.cx = cx;
+			this.cy = cy;
+			this.half = half;
+		}
+
+		boolean containsCentre(float x, float y){
+			return x >= cx - half && x < cx + half && y >= cy - half && y < cy + half;
+		}
+
+		boolean looseOverlaps(float left, float top, float right, float bottom){
+			float lh = half + half;
+			return !(right < cx - lh || left > cx + lh || bottom < cy - lh || top > cy + lh);
+		}
+
+		boolean isEmpty(){
+			if(!items.isEmpty())
+				return false;
+			if(child != null)
+				for(int q = 0; q < 4; q++)
+					if(child[q] != null)
+						return false;
+			return true;
+		}
+	}
+
+	/**
+	 * Get the number of sprites in the tree
+	 */
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * Add a sprite to the tree
+	 * 
+	 * @param s
+	 */
+	public void insert(Sprite s){
+		if(s.qtNode != null)
+			return;
+		s.calcBounds();
+		float x = s.x, y = s.y;
+		float r = Math.max(s.boundsRight - x, s.boundsBottom - y);
+		if(root == null)
+			makeRoot(x, y, r);
+		else
+			growRoot(x, y, r);
+		Node n = root;
+		// Go as deep as possible
+		while(n.half / 2 >= r && n.half / 2 >= MIN_HALF_SIZE && n.containsCentre(x, y)){
+			int q = quadrant(n, x, y);
+			if(n.child == null)
+				n.child = new Node[4];
+			if(n.child[q] == null){
+				float h = n.half / 2;
+				n.child[q] = new Node(n, n.cx + ((q & 1) == 0 ? -h : h), n.cy + ((q & 2) == 0 ? -h : h), h);
+			}
+			n = n.child[q];
+		}
+		s.qtNode = n;
+		s.qtIndex = n.items.size();
+		n.items.add(s);
+		size++;
+	}
+
+	/**
+	 * Remove a sprite from the tree
+	 * 
+	 * @param s
+	 */
+	public void remove(Sprite s){
+		Node n = s.qtNode;
+		if(n == null)
+			return;
+		// Swap with the last item so removal is O(1)
+		int last = n.items.size() - 1;
+		Sprite moved = n.items.get(last);
+		n.items.set(s.qtIndex, moved);
+		moved.qtIndex = s.qtIndex;
+		n.items.remove(last);
+		s.qtNode = null;
+		s.qtIndex = -1;
+		size--;
+		// Discard empty leaf nodes
+		while(n != root && n.isEmpty()){
+			Node p = n.parent;
+			for(int q = 0; q < 4; q++)
+				if(p.child[q] == n)
+					p.child[q] = null;
+			n = p;
+		}
+	}
+
+	/**
+	 * The sprite's position, size or rotation has changed so update its 
+	 * bounds and move it to another node if it no longer belongs in the 
+	 * one it is in.
+	 * 
+	 * @param s
+	 */
+	public void update(Sprite s){
+		Node n = s.qtNode;
+		if(n == null)
+			return;
+		s.calcBounds();
+		float r = Math.max(s.boundsRight - s.x, s.boundsBottom - s.y);
+		boolean fits = n.containsCentre(s.x, s.y) && r <= n.half
+				&& !(n.half / 2 >= r && n.half / 2 >= MIN_HALF_SIZE);
+		if(!fits){
+			remove(s);
+			insert(s);
+		}
+	}
+
+	/**
+	 * Remove all sprites from the tree
+	 */
+	public void clear(){
+		clear(root);
+		root = null;
+		size = 0;
+	}
+
+	private void clear(Node n){
+		if(n == null)
+			return;
+		for(int i = 0; i < n.items.size(); i++){
+			n.items.get(i).qtNode = null;
+			n.items.get(i).qtIndex = -1;
+		}
+		if(n.child != null)
+			for(int q = 0; q < 4; q++)
+				clear(n.child[q]);
+	}
+
+	/**
+	 * Add all sprites whose bounding box overlaps the area to the list
+	 * 
+	 * @param left
+	 * @param top
+	 * @param right
+	 * @param bottom
+	 * @param found the list to add the sprites to
+	 */
+	public void query(float left, float top, float right, float bottom, List<Sprite> found){
+		if(root != null)
+			query(root, left, top, right, bottom, found);
+	}
+
+	private void query(Node n, float left, float top, float right, float bottom, List<Sprite> found){
+		ArrayList<Sprite> items = n.items;
+		for(int i = 0; i < items.size(); i++){
+			Sprite s = items.get(i);
+			if(s.boundsLeft <= right && s.boundsRight >= left 
+					&& s.boundsTop <= bottom && s.boundsBottom >= top)
+				found.add(s);
+		}
+		if(n.child != null){
+			for(int q = 0; q < 4; q++){
+				Node c = n.child[q];
+				if(c != null && c.looseOverlaps(left, top, right, bottom))
+					query(c, left, top, right, bottom, found);
+			}
+		}
+	}
+
+	/**
+	 * Add all sprites whose bounding box is crossed by the line segment 
+	 * x0,y0 to x1,y1 to the list. Only nodes whose loose bounds are crossed
+	 * by the segment are searched.
+	 * 
+	 * @param x0
+	 * @param y0
+	 * @param x1
+	 * @param y1
+	 * @param found the list to add the sprites to
+	 */
+	public void queryRay(float x0, float y0, float x1, float y1, List<Sprite> found){
+		if(root != null)
+			queryRay(root, x0, y0, x1 - x0, y1 - y0, found);
+	}
+
+	private void queryRay(Node n, float x0, float y0, float dx, float dy, List<Sprite> found){
+		ArrayList<Sprite> items = n.items;
+		for(int i = 0; i < items.size(); i++){
+			Sprite s = items.get(i);
+			if(segmentCrosses(x0, y0, dx, dy, s.boundsLeft, s.boundsTop, s.boundsRight, s.boundsBottom))
+				found.add(s);
+		}
+		if(n.child != null){
+			for(int q = 0; q < 4; q++){
+				Node c = n.child[q];
+				if(c == null)
+					continue;
+				float lh = c.half + c.half;
+				if(segmentCrosses(x0, y0, dx, dy, c.cx - lh, c.cy - lh, c.cx + lh, c.cy + lh))
+					queryRay(c, x0, y0, dx, dy, found);
+			}
+		}
+	}
+
+	/*
+	 * Slab test for the segment x0,y0 to x0+dx,y0+dy against a box
+	 */
+	private static boolean segmentCrosses(float x0, float y0, float dx, float dy, 
+			float left, float top, float right, float bottom){
+		float t0 = 0, t1 = 1;
+		if(dx == 0){
+			if(x0 < left || x0 > right)
+				return false;
+		}
+		else {
+			float ta = (left - x0) / dx, tb = (right - x0) / dx;
+			t0 = Math.max(t0, Math.min(ta, tb));
+			t1 = Math.min(t1, Math.max(ta, tb));
+		}
+		if(dy == 0){
+			if(y0 < top || y0 > bottom)
+				return false;
+		}
+		else {
+			float ta = (top - y0) / dy, tb = (bottom - y0) / dy;
+			t0 = Math.max(t0, Math.min(ta, tb));
+			t1 = Math.min(t1, Math.max(ta, tb));
+		}
+		return t0 <= t1;
+	}
+
+	private int quadrant(Node n, float x, float y){
+		return (x < n.cx ? 0 : 1) + (y < n.cy ? 0 : 2);
+	}
+
+	private void makeRoot(float x, float y, float r){
+		float half = MIN_HALF_SIZE;
+		if(S4P.screenDomain != null){
+			Domain d = S4P.screenDomain;
+			half = Math.max(half, Math.max(d.right - d.left, d.bottom - d.top) / 2);
+			root = new Node(null, (d.left + d.right) / 2, (d.top + d.bottom) / 2, half);
+		}
+		else
+			root = new Node(null, x, y, half);
+		growRoot(x, y, r);
+	}
+
+	/*
+	 * Double the size of the root until it contains the position and
+	 * the sprite size. The old root becomes one of the new root's children.
+	 */
+	private void growRoot(float x, float y, float r){
+		int n = 0;
+		while((!root.containsCentre(x, y) || r > root.half) && n++ < MAX_GROWTH){
+			Node old = root;
+			float h = old.half;
+			float ncx = old.cx + (x < old.cx ? -h : h);
+			float ncy = old.cy + (y < old.cy ? -h : h);
+			root = new Node(null, ncx, ncy, 2 * h);
+			root.child = new Node[4];
+			if(!old.isEmpty()){
+				// Rebuild the old root as a child of the new one
+				Node c = new Node(root, old.cx, old.cy, h);
+				c.items = old.items;
+				c.child = old.child;
+				if(c.child != null)
+					for(int q = 0; q < 4; q++)
+						if(c.child[q] != null)
+							c.child[q].parent = c;
+				for(int i = c.items.size() - 1; i >= 0; i--){
+					Sprite s = c.items.get(i);
+					s.qtNode = c;
+					// Sprites that never fitted the old root stay at the root
+					if(!c.containsCentre(s.x, s.y) || s.boundsRight - s.x > h || s.boundsBottom - s.y > h){
+						Sprite moved = c.items.get(c.items.size() - 1);
+						c.items.set(i, moved);
+						moved.qtIndex = i;
+						c.items.remove(c.items.size() - 1);
+						s.qtNode = root;
+						s.qtIndex = root.items.size();
+						root.items.add(s);
+					}
+				}
+				root.child[quadrant(root, old.cx, old.cy)] = c;
+			}
+		}
+	}
+}
@@ -0,0 +1,72 @@
+/*
+  Part of the Sprites for Processing library 
+  	http://sprites4processing.lagers.org.uk
+	http://code.google.com/p/sprites4processing/svn/trunk
+
+  Copyright (c) 2009 Peter Lager
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+ */
+
+package sprites;
+
+/**
+ * The result of a ray cast made with S4P.raycast(). <br>
+ * 
+ * If a sprite was hit it holds the sprite, the distance along the ray to 
+ * the first solid pixel hit, the world position of the hit and the pixel 
+ * hit in the sprite's current frame.
+ * 
+ * @author Peter Lager
+ *
+ */
+public class RayHit {
+
+	public Sprite sprite;
+	public float distance;
+	// World position of the hit
+	public float x, y;
+	// The pixel hit in the sprite's image
+	public int pixelX, pixelY;
+
+	/**
+	 * Create an empty ray hit
+	 */
+	public RayHit() {
+		reset();
+	}
+
+	/**
+	 * Clear the hit
+	 */
+	public void reset(){
+		sprite = null;
+		distance = Float.MAX_VALUE;
+		x = y = 0;
+		pixelX = pixelY = 0;
+	}
+
+	/**
+	 * Was a sprite hit?
+	 */
+	public boolean isHit(){
+		return sprite != null;
+	}
+
+	public String toString(){
+		return "[" + sprite + " at " + distance + " (" + x + ", " + y + ")]";
+	}
+}
@@ -24,11 +24,24 @@
 package sprites;
 
 import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.TreeSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadFactory;
+
+import javax.imageio.ImageIO;
 
 import processing.core.PApplet;
 import processing.core.PConstants;
@@ -45,17 +58,106 @@ import processing.core.PImage;
  * @author Peter Lager
  *
  */
-public class S4P implements PConstants {
+public class S4P implements PConstants, SConstants {
 
 	// Image loading uses these static attributes and methods
-	private static HashMap<Integer, ImageInfo> imageStore = new HashMap<Integer, ImageInfo>() ;
+	// Images are kept in least recently used order so that when the store 
+	// is over budget the images not used for longest are removed first
+	private static LinkedHashMap<String, ImageInfo> imageStore = new LinkedHashMap<String, ImageInfo>(16, 0.75f, true);
+	private static long imageBudget = Long.MAX_VALUE;
+	// Image file names already converted to real paths
+	private static HashMap<String, String> realPaths = new HashMap<String, String>();
+	private static int nbrImageHits = 0, nbrImageMisses = 0, nbrImageEvictions = 0;
+	// Texture atlas holding the frames of all loaded images (null if not used)
+	private static TextureAtlas atlas = null;
+	// Baked sprite sheets (null if not used)
+	private static AssetCache assetCache = null;
+	// Background image loading
+	private static boolean asyncLoading = false;
+	private static ExecutorService loader = null;
+	private static ArrayList<ImageInfo> loadingImages = new ArrayList<ImageInfo>();
+	// Drawn in place of sprites whose image is still loading (null = not drawn)
+	protected static PImage placeholder = null;
 
-	private static LinkedList<Sprite> sprites = new LinkedList<Sprite>();
+	private static SpriteLayers sprites = new SpriteLayers();
 	private static PApplet app;
-	private static long time = 0;
+	private static SClock clock = new SClock();
+	// Incremented each time updateSprites() is called
+	protected static int updateCount = 0;
+
+	// Headless mode - no PApplet, nothing is drawn
+	private static boolean headless = false;
+	private static int viewWidth = 0, viewHeight = 0;
 	
 	public static boolean messages = true;
 
+	// Broad phase collision detection
+	private static final float DEFAULT_CELL_SIZE = 64.0f;
+	private static SpatialHash grid = null;
+	private static boolean gridStale = true;
+	private static ArrayList<SpritePair> pairPool = new ArrayList<SpritePair>();
+	private static ArrayList<SpritePair> candidatePairs = new ArrayList<SpritePair>();
+	private static ArrayList<SpritePair> collisionPairs = new ArrayList<SpritePair>();
+	private static int nbrCandidatePairs = 0;
+	private static int nbrCollisionPairs = 0;
+
+	// Sprites bucketed by collision category bit (rebuilt when needed)
+	private static ArrayList<ArrayList<Sprite>> groups = null;
+	private static boolean groupsStale = true;
+
+	// Direct mapped cache of narrow phase results, keyed on the two sprite
+	// ids and valid while neither sprite's version has changed
+	private static final int DEFAULT_CACHE_SIZE = 4096;
+	private static long[] cacheKey = null;
+	private static int[] cacheVersionA, cacheVersionB, cacheTag;
+	private static boolean[] cacheResult;
+	private static int[] cacheHitXY;
+	private static int cacheMask = 0;
+	private static int nbrCacheHits = 0;
+	private static int nbrCacheTests = 0;
+
+	// Parallel narrow phase
+	private static final int PAIR_CHUNK = 64;
+	private static boolean parallelCollision = false;
+	private static int parallelCollisionThreshold = 1000;
+	private static CollisionResults pairResults = null;
+
+	// Region index used for culling and area queries
+	private static QuadTree tree = new QuadTree();
+	private static ArrayList<Sprite> visibleSprites = new ArrayList<Sprite>();
+	private static ArrayList<Sprite> foundSprites = new ArrayList<Sprite>();
+	private static RayHit rayHit = new RayHit();
+	// Used by lineOfSight() so it doesn't overwrite the raycast() result
+	private static RayHit sightHit = new RayHit();
+	private static int[] rayPixel = new int[2];
+
+	// Trigger zones checked after every update
+	private static ArrayList<TriggerZone> zones = new ArrayList<TriggerZone>();
+	private static TriggerZone[] zoneBuffer = new TriggerZone[0];
+
+	// Parallel sprite update
+	private static boolean parallelUpdate = false;
+	private static int parallelThreshold = 5000;
+	private static final int PARALLEL_CHUNK = 1024;
+	private static ForkJoinPool pool = null;
+	// True while sprites are being updated on the fork-join pool
+	private static volatile boolean updatingInParallel = false;
+	private static Sprite[] updateBuffer = new Sprite[0];
+	// The layers to sweep in updateSpritesSerial()
+	private static SpriteLayers.Layer[] sweepLayers = new SpriteLayers.Layer[0];
+	private static int[] sweepEnds = new int[0];
+	private static int nbrToUpdate = 0;
+
+	// Orders sprites by z order then by position in their layer
+	private static final Comparator<Sprite> drawOrder = new Comparator<Sprite>() {
+		public int compare(Sprite s1, Sprite s2) {
+			int c = s1.zOrder.compareTo(s2.zOrder);
+			if(c == 0)
+				c = (s1.layerIndex < s2.layerIndex) ? -1 : ((s1.layerIndex == s2.layerIndex) ? 0 : 1);
+			return c;
+		}
+	};
+
 	/**
 	 * If you want to see the collision area for the sprites then set to tru.<br>
 	 * This should only be done when testing collision detection because it 
@@ -81,6 +183,13 @@ public class S4P implements PConstants {
 	 */
 	public static float deltaTime = 0;
 
+	/**
+	 * This is a read only attribute used when drawing sprites with a fixed
+	 * time step. It is the fraction (0-1) of the way from each sprite's 
+	 * previous position to its current position to draw it at.
+	 */
+	public static float interpolation = 1.0f;
+
 
 	/**
 	 * Defines that area of the world that is being displayed
@@ -111,8 +220,8 @@ public class S4P implements PConstants {
 	 */
 	public static void resizeWorld(float scale){
 		float newX, newY;
-		float w = (float)app.width;
-		float h = (float)app.height;
+		float w = (float)getViewWidth();
+		float h = (float)getViewHeight();
 		// Calculate new origin so as to centre the image
 		newX = worldX + w/(2.0f*worldScale) - w/(2.0f*scale);
 		newY = worldY + h/(2.0f*worldScale) - h/(2.0f*scale);
@@ -128,9 +237,52 @@ public class S4P implements PConstants {
 	 */
 	protected static void calcScreenDomain(){
 		screenDomain.left = worldX;
-		screenDomain.right = worldX + app.width/worldScale;
+		screenDomain.right = worldX + getViewWidth()/worldScale;
 		screenDomain.top = worldY;
-		screenDomain.bottom = worldY + app.height / worldScale;
+		screenDomain.bottom = worldY + getViewHeight() / worldScale;
+	}
+
+	/**
+	 * Run without a PApplet. Images are loaded directly from the file
+	 * system into pixel buffers, sprites are updated and collision detection 
+	 * works as normal but drawSprites() does nothing. <br>
+	 * This must be called before any sprites are created and the sprites 
+	 * should be created with a null PApplet. Use updateSprites(float) to 
+	 * step the simulation as fast as possible. <br>
+	 * Useful for testing, benchmarking and running a simulation on a server.
+	 * 
+	 * @param width width of the (imaginary) display in pixels
+	 * @param height height of the (imaginary) display in pixels
+	 */
+	public static void initHeadless(int width, int height){
+		headless = true;
+		app = null;
+		viewWidth = width;
+		viewHeight = height;
+		if(screenDomain == null)
+			screenDomain = new Domain(0, 0, width, height);
+		calcScreenDomain();
+	}
+
+	/**
+	 * Is S4P running without a PApplet?
+	 */
+	public static boolean isHeadless(){
+		return headless;
+	}
+
+	/**
+	 * Get the width of the display in pixels
+	 */
+	public static int getViewWidth(){
+		return (app != null) ? app.width : viewWidth;
+	}
+
+	/**
+	 * Get the height of the display in pixels
+	 */
+	public static int getViewHeight(){
+		return (app != null) ? app.height : viewHeight;
 	}
 	
 	/**
@@ -198,14 +350,19 @@ public class S4P implements PConstants {
 
 	/**
 	 * INTERNAL USE ONLY <br>
-	 * Avoid nulls being included to simplify sorter
+	 * The sprite is added to the end of the layer for its z order so is
+	 * drawn after existing sprites with the same z order.
 	 * 
 	 * @param sprite
 	 */
 	public static void registerSprite(Sprite sprite){
 		if(sprite != null){
+			if(sprite.layer == null)
+				acquireImage(sprite.info);
 			sprites.add(sprite);
-			sortZorder();
+			tree.insert(sprite);
+			gridStale = true;
+			groupsStale = true;
 		}
 	}
 
@@ -216,16 +373,48 @@ public class S4P implements PConstants {
 	 */
 	public static void deregisterSprite(Sprite sprite){
 		if(sprite != null){
+			if(sprite.layer != null)
+				releaseImage(sprite.info);
 			sprites.remove(sprite);
+			tree.remove(sprite);
+			gridStale = true;
+			groupsStale = true;
 		}
 	}
 
 	/**
-	 * Sorts the sprites so they are drawn in z order <br>
-	 * Lower Z order values are drawn first. sort
+	 * INTERNAL USE ONLY <br>
+	 * Called when a sprite's position, size or rotation has been changed
+	 * so it can be repositioned in the quadtree. <br>
+	 * Ignored during a parallel update because the tree is shared by the
+	 * worker threads, all the updated sprites are repositioned afterwards.
+	 * 
+	 * @param sprite
+	 */
+	public static void spriteMoved(Sprite sprite){
+		if(!updatingInParallel)
+			tree.update(sprite);
+	}
+
+	/**
+	 * INTERNAL USE ONLY <br>
+	 * Move a sprite to the end of the layer for its new z order
+	 * 
+	 * @param sprite
+	 * @param zOrder
+	 */
+	public static void changeZorder(Sprite sprite, int zOrder){
+		sprites.move(sprite, zOrder);
+	}
+
+	/**
+	 * Sprites are always kept in z order so this is no longer needed
+	 * to draw them in the right order. Lower Z order values are drawn 
+	 * first. <br>
+	 * It removes any gaps left by sprites that have been removed.
 	 */
 	public static void sortZorder(){
-		Collections.sort(sprites);
+		sprites.compact();
 	}
 	
 	/**
@@ -233,60 +422,996 @@ public class S4P implements PConstants {
 	 * this just before you call the updateSprites() method.
 	 */
 	public static void updateTime(){
-		long now = System.currentTimeMillis();
-		if(time == 0){
-			deltaTime = 0;
-			time = now;	
-		}
-		else {
-			deltaTime = (now - time)/1000.0f;
-			time = now;
-		}
+		clock.tick();
+		deltaTime = clock.getFrameTime();
+		interpolation = clock.getAlpha();
+	}
+
+	/**
+	 * Update the sprites using a fixed time step rather than the time between 
+	 * frames. Each call to updateSprites() will update the sprites as many 
+	 * times as needed to keep up with the real time (up to a maximum number 
+	 * of steps) and drawSprites() draws each sprite between its previous and 
+	 * current positions so the motion is smooth. <br>
+	 * A fixed step makes the movement the same whatever the frame rate and 
+	 * stops a slow frame moving fast sprites a long way in one jump.
+	 * 
+	 * @param step the time step in seconds e.g. 1/60.0 (0 to go back to variable steps)
+	 * @param maxSteps the maximum number of steps in any one frame
+	 */
+	public static void setFixedTimestep(float step, int maxSteps){
+		clock.setFixedStep(step, maxSteps);
+		interpolation = clock.getAlpha();
+	}
+
+	/**
+	 * Get the clock used to time the sprite updates
+	 */
+	public static SClock getClock(){
+		return clock;
 	}
 
 	/**
 	 * Update the position, image animation etc for every sprite based on the
 	 * time since the last time this method is called. This method should follow
-	 * after a call to updateTime()
+	 * after a call to updateTime() <br>
+	 * Dead sprites are removed (and their onRemoved() method called) in the 
+	 * same pass, the layers are compacted in place so no objects are created.
 	 */
 	public static void updateSprites(){
-		Iterator<Sprite> iter = sprites.iterator();
-		TreeSet<Sprite> toRemove = new TreeSet<Sprite>();
-		Sprite s = null;
-		while(iter.hasNext()){
-			s = iter.next();
-			if(s.isDead())
-				toRemove.add(s); // track sprites to remove
+		updateCount++;
+		int steps = clock.getNbrSteps();
+		float dt = clock.isFixedStep() ? clock.getStep() : deltaTime;
+		for(int i = 0; i < steps; i++){
+			if(parallelUpdate && sprites.size() >= parallelThreshold)
+				updateSpritesParallel(dt);
 			else
-				s.update(deltaTime);
+				updateSpritesSerial(dt);
 		}
-		// Remove dead sprites
-		if(toRemove.size() > 0){
-			iter = toRemove.iterator();
-			while(iter.hasNext()){
-				sprites.remove(iter.next());
+		// Keep the collision grid in step with the sprite positions
+		if(grid != null){
+			grid.build(sprites);
+			gridStale = false;
+		}
+		checkTriggerZones();
+	}
+
+	/**
+	 * Update every sprite once using the time step provided rather than
+	 * the time measured by updateTime(). Intended for use in headless mode 
+	 * to run a simulation faster (or slower) than real time.
+	 * 
+	 * @param dt the time step in seconds
+	 */
+	public static void updateSprites(float dt){
+		updateCount++;
+		deltaTime = dt;
+		if(parallelUpdate && sprites.size() >= parallelThreshold)
+			updateSpritesParallel(dt);
+		else
+			updateSpritesSerial(dt);
+		if(grid != null){
+			grid.build(sprites);
+			gridStale = false;
+		}
+		checkTriggerZones();
+	}
+
+	/**
+	 * Update and reap the sprites one at a time on this thread. <br>
+	 * The layers, and the number of sprites in each, are fixed before the 
+	 * sweep starts. Sprites added or moved to another layer by update() or 
+	 * an event handler go to the end of a layer so are not updated again 
+	 * (or for the first time) until the next frame, as in the parallel 
+	 * version.
+	 */
+	private static void updateSpritesSerial(float dt){
+		Sprite s = null;
+		int nbrLayers = sprites.nbrLayers();
+		if(sweepLayers.length < nbrLayers){
+			sweepLayers = new SpriteLayers.Layer[nbrLayers + 4];
+			sweepEnds = new int[sweepLayers.length];
+		}
+		for(int ln = 0; ln < nbrLayers; ln++){
+			sweepLayers[ln] = sprites.layer(ln);
+			sweepEnds[ln] = sweepLayers[ln].size;
+		}
+		for(int ln = 0; ln < nbrLayers; ln++){
+			SpriteLayers.Layer layer = sweepLayers[ln];
+			sweepLayers[ln] = null;
+			int end = sweepEnds[ln];
+			for(int i = 0; i < end; i++){
+				s = layer.items[i];
+				if(s == null)
+					continue;
+				if(s.isDead()){
+					sprites.remove(s);
+					releaseImage(s.info);
+					tree.remove(s);
+					groupsStale = true;
+					// If onRemoved() registers the sprite again it is added 
+					// to the end of its layer
+					s.onRemoved();
+					continue;
+				}
+				s.update(dt);
+				// update() may have deregistered the sprite
+				if(s.layer != null)
+					tree.update(s);
+			}
+			// Close any gaps left by removed and moved sprites
+			layer.compact();
+		}
+	}
+
+	/**
+	 * Reap the dead sprites and gather the live ones, update the live sprites 
+	 * on the fork-join pool then update the quadtree in draw order. Only the 
+	 * middle step runs in parallel so the result is the same as the serial 
+	 * version.
+	 */
+	private static void updateSpritesParallel(float dt){
+		Sprite s = null;
+		if(updateBuffer.length < sprites.size())
+			updateBuffer = new Sprite[sprites.size() + sprites.size() / 4];
+		nbrToUpdate = 0;
+		for(int ln = 0; ln < sprites.nbrLayers(); ln++){
+			SpriteLayers.Layer layer = sprites.layer(ln);
+			int n = 0;
+			for(int i = 0; i < layer.size; i++){
+				s = layer.items[i];
+				if(s == null)
+					continue;
+				if(s.isDead()){
+					sprites.discard(s);
+					releaseImage(s.info);
+					tree.remove(s);
+					groupsStale = true;
+					s.onRemoved();
+				}
+				else if(s.layer == layer){
+					layer.items[n] = s;
+					s.layerIndex = n++;
+					updateBuffer[nbrToUpdate++] = s;
+				}
 			}
+			layer.truncate(n);
 		}
+		if(pool == null)
+			pool = new ForkJoinPool();
+		updatingInParallel = true;
+		try {
+			pool.invoke(new UpdateTask(updateBuffer, 0, nbrToUpdate, dt));
+		}
+		finally {
+			updatingInParallel = false;
+		}
+		for(int i = 0; i < nbrToUpdate; i++){
+			tree.update(updateBuffer[i]);
+			updateBuffer[i] = null;
+		}
+		nbrToUpdate = 0;
+	}
+
+	/**
+	 * Enable or disable updating sprites in parallel across all the available
+	 * processor cores. It is only used when the number of sprites is at least 
+	 * the threshold value because for small numbers of sprites it is slower
+	 * than updating them one at a time. <br>
+	 * Only use this if your sprites' update() methods just change the state of 
+	 * their own sprite (this is true unless you have overridden update()). 
+	 * Calling the sprite's own setters e.g. setXY() is fine but changing its
+	 * z order or deregistering it is not.
+	 * 
+	 * @param enable true to use parallel update
+	 * @param threshold minimum number of sprites before parallel update is used
+	 */
+	public static void setParallelUpdate(boolean enable, int threshold){
+		parallelUpdate = enable;
+		parallelThreshold = threshold;
+	}
+
+	/**
+	 * Is parallel sprite update enabled?
+	 */
+	public static boolean isParallelUpdate(){
+		return parallelUpdate;
+	}
+
+	/**
+	 * INTERNAL USE ONLY <br>
+	 * Updates a range of sprites splitting the range in half until it is 
+	 * small enough to do directly.
+	 */
+	private static class UpdateTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Sprite[] toUpdate;
+		private final int lo, hi;
+		private final float dt;
+
+		UpdateTask(Sprite[] toUpdate, int lo, int hi, float dt){
+			this.toUpdate = toUpdate;
+			this.lo = lo;
+			this.hi = hi;
+			this.dt = dt;
+		}
+
+		protected void compute() {
+			if(hi - lo <= PARALLEL_CHUNK){
+				for(int i = lo; i < hi; i++)
+					toUpdate[i].update(dt);
+			}
+			else {
+				int mid = (lo + hi) >>> 1;
+				invokeAll(new UpdateTask(toUpdate, lo, mid, dt), new UpdateTask(toUpdate, mid, hi, dt));
+			}
+		}
+	}
+
+	/**
+	 * Use a uniform grid for the broad phase of collision detection. Once set
+	 * the grid is rebuilt every time updateSprites() is called. <br>
+	 * The cell size should be about the size of a typical sprite, too small 
+	 * and large sprites occupy many cells, too large and many sprites share
+	 * the same cell.
+	 * 
+	 * @param cellSize the width and height of a grid cell in world units
+	 */
+	public static void setCollisionGrid(float cellSize){
+		if(grid == null)
+			grid = new SpatialHash(cellSize);
+		else
+			grid.setCellSize(cellSize);
+		gridStale = true;
+	}
+
+	/**
+	 * Find all pairs of colliding sprites. <br>
+	 * Only sprites that share a cell in the collision grid are tested using 
+	 * the collision method specified so this is much faster than testing 
+	 * every sprite against every other sprite. Sprite positions are those at 
+	 * the last call to updateSprites(). Pairs whose collision categories
+	 * don't match (see Sprite.setCollisionCategory()) are rejected before 
+	 * any geometry is tested. <br>
+	 * If pixel level collision is used the hit positions are available from 
+	 * the sprites afterwards in the same way as Sprite.pp_collision(). <br>
+	 * The list and the pair objects are reused so their contents are only 
+	 * valid until the next call to this method.
+	 * 
+	 * @param method CC_COLLISION, BB_COLLISION or PP_COLLISION
+	 * @return a list of colliding sprite pairs
+	 */
+	public static List<SpritePair> findCollisions(int method){
+		if(grid == null)
+			setCollisionGrid(DEFAULT_CELL_SIZE);
+		if(gridStale){
+			grid.build(sprites);
+			gridStale = false;
+		}
+		candidatePairs.clear();
+		collisionPairs.clear();
+		nbrCandidatePairs = grid.findPairs(pairPool, candidatePairs);
+		if(parallelCollision && nbrCandidatePairs >= parallelCollisionThreshold){
+			pairResults = testPairs(candidatePairs, method, pairResults);
+			applyResults(candidatePairs, pairResults);
+			for(int i = 0; i < nbrCandidatePairs; i++)
+				if(pairResults.hit[i])
+					collisionPairs.add(candidatePairs.get(i));
+			nbrCollisionPairs = collisionPairs.size();
+			return collisionPairs;
+		}
+		for(int i = 0; i < nbrCandidatePairs; i++){
+			SpritePair pair = candidatePairs.get(i);
+			if(collides(pair.spriteA, pair.spriteB, method))
+				collisionPairs.add(pair);
+		}
+		nbrCollisionPairs = collisionPairs.size();
+		return collisionPairs;
+	}
+
+	/**
+	 * Find all pairs of colliding sprites where one sprite is in groupA and 
+	 * the other in groupB. Only the sprites in these two groups are tested 
+	 * so this is useful when there are many sprites that can't collide, e.g.
+	 * <pre>
+	 * S4P.findCollisions(BULLET, ENEMY, CC_COLLISION);
+	 * </pre>
+	 * The sprites' collidesWith masks are also respected and each pair is
+	 * reported once even if both sprites are in both groups. <br>
+	 * The list and the pair objects are reused so their contents are only 
+	 * valid until the next call to either findCollisions method.
+	 * 
+	 * @param groupA a collision category (single bit)
+	 * @param groupB a collision category (single bit), can be the same as groupA
+	 * @param method CC_COLLISION, BB_COLLISION or PP_COLLISION
+	 * @return a list of colliding sprite pairs
+	 */
+	public static List<SpritePair> findCollisions(int groupA, int groupB, int method){
+		List<Sprite> listA = getGroup(groupA);
+		List<Sprite> listB = getGroup(groupB);
+		boolean same = (listA == listB);
+		// The group bits actually used by getGroup()
+		int bitA = groupA & -groupA, bitB = groupB & -groupB;
+		candidatePairs.clear();
+		collisionPairs.clear();
+		int count = 0;
+		for(int i = 0; i < listA.size(); i++){
+			Sprite a = listA.get(i);
+			if(a.dead || !a.visible)
+				continue;
+			for(int j = same ? i + 1 : 0; j < listB.size(); j++){
+				Sprite b = listB.get(j);
+				if(b == a || b.dead || !b.visible || !a.canCollideWith(b))
+					continue;
+				// A sprite in both groups meets the other sprite twice so only
+				// report the pair from the sprite with the lower ID
+				if(!same && (a.category & bitB) != 0 && (b.category & bitA) != 0 
+						&& a.spriteID > b.spriteID)
+					continue;
+				count++;
+				if(collides(a, b, method)){
+					SpritePair pair;
+					if(collisionPairs.size() < pairPool.size())
+						pair = pairPool.get(collisionPairs.size());
+					else {
+						pair = new SpritePair();
+						pairPool.add(pair);
+					}
+					pair.spriteA = a;
+					pair.spriteB = b;
+					collisionPairs.add(pair);
+				}
+			}
+		}
+		nbrCandidatePairs = count;
+		nbrCollisionPairs = collisionPairs.size();
+		return collisionPairs;
+	}
+
+	/**
+	 * Get all the registered sprites in a collision category. If the 
+	 * category has more than one bit set then only the lowest bit is used. 
+	 * <br>
+	 * The groups are only rebuilt when sprites are added or removed or 
+	 * change category. The list returned must not be changed.
+	 * 
+	 * @param category a collision category (single bit)
+	 * @return the sprites in this category (may be empty)
+	 */
+	public static List<Sprite> getGroup(int category){
+		if(groupsStale)
+			buildGroups();
+		if(category == 0)
+			return Collections.emptyList();
+		return groups.get(Integer.numberOfTrailingZeros(category));
+	}
+
+	/**
+	 * INTERNAL USE ONLY <br>
+	 * Called when a sprite changes its collision category.
+	 */
+	public static void groupsChanged(){
+		groupsStale = true;
+	}
+
+	/**
+	 * Put every registered sprite in the group for each bit in its category.
+	 */
+	private static void buildGroups(){
+		if(groups == null){
+			groups = new ArrayList<ArrayList<Sprite>>(32);
+			for(int i = 0; i < 32; i++)
+				groups.add(new ArrayList<Sprite>());
+		}
+		for(int i = 0; i < 32; i++)
+			groups.get(i).clear();
+		for(Sprite s : sprites){
+			int c = s.category;
+			while(c != 0){
+				groups.get(Integer.numberOfTrailingZeros(c)).add(s);
+				c &= c - 1;
+			}
+		}
+		groupsStale = false;
+	}
+
+	/**
+	 * INTERNAL USE ONLY <br>
+	 * Apply the narrow phase collision test to a pair of sprites.
+	 * 
+	 * @param spriteA
+	 * @param spriteB
+	 * @param method CC_COLLISION, BB_COLLISION or PP_COLLISION
+	 * @return true if the sprites collide
+	 */
+	protected static boolean collides(Sprite spriteA, Sprite spriteB, int method){
+		if(cacheKey == null)
+			setCollisionCache(DEFAULT_CACHE_SIZE);
+		// Swept tests depend on the movement not just the current state
+		if(cacheMask < 0 || spriteA.continuousCollision || spriteB.continuousCollision)
+			return narrowPhase(spriteA, spriteB, method);
+		nbrCacheTests++;
+		long key = ((long)spriteA.spriteID << 32) | (spriteB.spriteID & 0xffffffffL);
+		int tag = method ^ (Sprite.ALPHALEVEL << 16);
+		int slot = (int)((key * 0x9E3779B97F4A7C15L) >>> 40) & cacheMask;
+		if(cacheKey[slot] == key && cacheTag[slot] == tag
+				&& cacheVersionA[slot] == spriteA.version && cacheVersionB[slot] == spriteB.version){
+			nbrCacheHits++;
+			if(cacheResult[slot] && method == PP_COLLISION){
+				spriteA.setHitXY(cacheHitXY[4*slot], cacheHitXY[4*slot + 1]);
+				spriteB.setHitXY(cacheHitXY[4*slot + 2], cacheHitXY[4*slot + 3]);
+			}
+			return cacheResult[slot];
+		}
+		boolean result = narrowPhase(spriteA, spriteB, method);
+		cacheKey[slot] = key;
+		cacheTag[slot] = tag;
+		cacheVersionA[slot] = spriteA.version;
+		cacheVersionB[slot] = spriteB.version;
+		cacheResult[slot] = result;
+		if(result && method == PP_COLLISION){
+			cacheHitXY[4*slot] = spriteA.hit_x;
+			cacheHitXY[4*slot + 1] = spriteA.hit_y;
+			cacheHitXY[4*slot + 2] = spriteB.hit_x;
+			cacheHitXY[4*slot + 3] = spriteB.hit_y;
+		}
+		return result;
+	}
+
+	/**
+	 * Apply the collision test without using the cache
+	 */
+	private static boolean narrowPhase(Sprite spriteA, Sprite spriteB, int method){
+		switch(method){
+		case CC_COLLISION:
+			return spriteA.cc_collision(spriteB);
+		case BB_COLLISION:
+			return spriteA.bb_collision(spriteB);
+		case PP_COLLISION:
+			return spriteA.pp_collision(spriteB);
+		}
+		return false;
+	}
+
+	/**
+	 * Test whether two sprites collide using the collision result cache. If 
+	 * neither sprite has been moved, rotated, scaled, bitten or changed 
+	 * frame since the last time this pair was tested the previous result 
+	 * (and hit positions for pixel level collision) is returned without 
+	 * repeating the test. <br>
+	 * findCollisions() uses this method for every candidate pair.
+	 * 
+	 * @param spriteA
+	 * @param spriteB
+	 * @param method CC_COLLISION, BB_COLLISION or PP_COLLISION
+	 * @return true if the sprites collide
+	 */
+	public static boolean testCollision(Sprite spriteA, Sprite spriteB, int method){
+		return collides(spriteA, spriteB, method);
+	}
+
+	/**
+	 * Test a list of sprite pairs for collision using all the available 
+	 * processor cores. <br>
+	 * The sprites are not changed, the result for each pair, including the
+	 * hit positions for pixel level collision, is stored in the results 
+	 * buffer. Call applyResults() afterwards if you want the hit positions
+	 * set in the sprites. <br>
+	 * The collision masks needed are made before the parallel tests start.
+	 * The collision cache is not used.
+	 * 
+	 * @param pairs the pairs to test
+	 * @param method CC_COLLISION, BB_COLLISION or PP_COLLISION
+	 * @param results the buffer to reuse or null to create a new one
+	 * @return the results buffer
+	 */
+	public static CollisionResults testPairs(List<SpritePair> pairs, int method, CollisionResults results){
+		int n = pairs.size();
+		if(results == null)
+			results = new CollisionResults(n);
+		results.reset(n, method);
+		// Make any missing masks now, this can't be done in parallel
+		if(method == PP_COLLISION){
+			for(int i = 0; i < n; i++){
+				SpritePair pair = pairs.get(i);
+				// Loading sprites have no masks and never collide
+				if(pair.spriteA.loading || pair.spriteB.loading)
+					continue;
+				pair.spriteA.getCollisionMask();
+				pair.spriteB.getCollisionMask();
+			}
+		}
+		if(n <= PAIR_CHUNK)
+			testPairRange(pairs, 0, n, results);
+		else {
+			if(pool == null)
+				pool = new ForkJoinPool();
+			pool.invoke(new PairTask(pairs, 0, n, results));
+		}
+		return results;
+	}
+
+	/**
+	 * Set the hit positions (pixel level collision) and time of impact 
+	 * (continuous collision) in the colliding sprites from the results of 
+	 * testPairs(). <br>
+	 * The pairs are processed in list order so if a sprite is in more than
+	 * one colliding pair it keeps the values from the last one, just as if 
+	 * the pairs had been tested one at a time.
+	 * 
+	 * @param pairs the list of pairs that was tested
+	 * @param results the results from testPairs()
+	 */
+	public static void applyResults(List<SpritePair> pairs, CollisionResults results){
+		for(int i = 0; i < results.size; i++){
+			if(!results.hit[i])
+				continue;
+			SpritePair pair = pairs.get(i);
+			if(results.hitXY[i] != Sprite.NO_HIT)
+				pair.spriteA.applyHit(pair.spriteB, results.hitXY[i]);
+			if(results.toi[i] >= 0)
+				pair.spriteA.toi = pair.spriteB.toi = results.toi[i];
+		}
+	}
+
+	/**
+	 * Use testPairs() in findCollisions() when the number of candidate 
+	 * pairs is at least the threshold value. <br>
+	 * The results are the same as testing the pairs one at a time but the 
+	 * collision cache is not used.
+	 * 
+	 * @param enable true to test the pairs in parallel
+	 * @param threshold minimum number of candidate pairs
+	 */
+	public static void setParallelCollision(boolean enable, int threshold){
+		parallelCollision = enable;
+		parallelCollisionThreshold = threshold;
+	}
+
+	/**
+	 * Is the parallel narrow phase enabled?
+	 */
+	public static boolean isParallelCollision(){
+		return parallelCollision;
+	}
+
+	/*
+	 * Test pairs lo to hi-1 without changing the sprites
+	 */
+	private static void testPairRange(List<SpritePair> pairs, int lo, int hi, CollisionResults results){
+		int method = results.method;
+		for(int i = lo; i < hi; i++){
+			Sprite a = pairs.get(i).spriteA;
+			Sprite b = pairs.get(i).spriteB;
+			boolean hit = false;
+			long hitXY = Sprite.NO_HIT;
+			float toi = -1;
+			if(a.visible && b.visible){
+				boolean swept = a.continuousCollision || b.continuousCollision;
+				switch(method){
+				case CC_COLLISION:
+					if(swept){
+						toi = a.sweptCircleTime(b);
+						hit = toi >= 0;
+					}
+					else
+						hit = a.cc_collision(b);
+					break;
+				case BB_COLLISION:
+					if(swept){
+						toi = a.sweptBoxTime(b);
+						hit = toi >= 0;
+					}
+					else
+						hit = a.bb_collision(b);
+					break;
+				case PP_COLLISION:
+					hitXY = a.pp_test(b);
+					hit = hitXY != Sprite.NO_HIT;
+					break;
+				}
+			}
+			results.hit[i] = hit;
+			results.hitXY[i] = hitXY;
+			results.toi[i] = toi;
+		}
+	}
+
+	/**
+	 * Fork-join task to test a range of sprite pairs
+	 */
+	private static class PairTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final List<SpritePair> pairs;
+		private final int lo, hi;
+		private final CollisionResults results;
+
+		PairTask(List<SpritePair> pairs, int lo, int hi, CollisionResults results){
+			this.pairs = pairs;
+			this.lo = lo;
+			this.hi = hi;
+			this.results = results;
+		}
+
+		protected void compute() {
+			if(hi - lo <= PAIR_CHUNK)
+				testPairRange(pairs, lo, hi, results);
+			else {
+				int mid = (lo + hi) >>> 1;
+				invokeAll(new PairTask(pairs, lo, mid, results), new PairTask(pairs, mid, hi, results));
+			}
+		}
+	}
+
+	/**
+	 * Set the number of pair results held in the collision cache. The size
+	 * is rounded up to a power of 2, use 0 to disable the cache. <br>
+	 * The default size is 4096 pairs.
+	 * 
+	 * @param size the maximum number of pair results to keep
+	 */
+	public static void setCollisionCache(int size){
+		nbrCacheHits = nbrCacheTests = 0;
+		if(size <= 0){
+			cacheKey = new long[0];
+			cacheMask = -1;
+			return;
+		}
+		int n = Integer.highestOneBit(size);
+		if(n < size)
+			n <<= 1;
+		cacheKey = new long[n];
+		Arrays.fill(cacheKey, -1L);
+		cacheVersionA = new int[n];
+		cacheVersionB = new int[n];
+		cacheTag = new int[n];
+		cacheResult = new boolean[n];
+		cacheHitXY = new int[4 * n];
+		cacheMask = n - 1;
+	}
+
+	/**
+	 * Get the number of collision tests answered from the cache since 
+	 * the cache was created.
+	 */
+	public static int getNbrCacheHits(){
+		return nbrCacheHits;
+	}
+
+	/**
+	 * Get the number of collision tests that used the cache since the
+	 * cache was created.
+	 */
+	public static int getNbrCacheTests(){
+		return nbrCacheTests;
+	}
+
+	/**
+	 * Get the number of candidate pairs produced by the collision grid in 
+	 * the last call to findCollisions()
+	 */
+	public static int getNbrCandidatePairs(){
+		return nbrCandidatePairs;
+	}
+
+	/**
+	 * Get the number of candidate pairs that were confirmed as collisions
+	 * in the last call to findCollisions()
+	 */
+	public static int getNbrCollisions(){
+		return nbrCollisionPairs;
 	}
 
 	/**
 	 * Called from with the draw() method of your sketch. Causes all
-	 * visible non-dead sprites to be displayed.
+	 * visible non-dead sprites to be displayed. <br>
+	 * Only sprites that overlap the screen domain are drawn. Does nothing
+	 * in headless mode.
 	 */
 	public static void drawSprites(){
+		if(app == null)
+			return;
+		if(!loadingImages.isEmpty())
+			checkLoadedImages();
 		app.pushMatrix();
 		app.scale(worldScale);
 		app.translate(-worldX, -worldY);
-		Iterator<Sprite> iter = sprites.iterator();
 		app.imageMode(CENTER);
-		while(iter.hasNext()){
-			iter.next().draw();
+		visibleSprites.clear();
+		Domain d = screenDomain;
+		tree.query(d.left, d.top, d.right, d.bottom, visibleSprites);
+		if(2 * visibleSprites.size() > sprites.size()){
+			// Most sprites are on screen so it is cheaper to use the
+			// z ordered list than to sort the visible ones
+			Sprite s;
+			for(int ln = 0; ln < sprites.nbrLayers(); ln++){
+				SpriteLayers.Layer layer = sprites.layer(ln);
+				for(int i = 0; i < layer.size; i++){
+					s = layer.items[i];
+					if(s != null && s.boundsLeft <= d.right && s.boundsRight >= d.left 
+							&& s.boundsTop <= d.bottom && s.boundsBottom >= d.top)
+						s.draw();
+				}
+			}
+		}
+		else {
+			Collections.sort(visibleSprites, drawOrder);
+			for(int i = 0; i < visibleSprites.size(); i++)
+				visibleSprites.get(i).draw();
 		}
+		visibleSprites.clear();
 		app.popMatrix();
 	}
 
+	/**
+	 * Get all the sprites whose bounding box overlaps the area.
+	 * 
+	 * @param area the area in world coordinates
+	 * @return a list of sprites (may be empty)
+	 */
+	public static List<Sprite> query(Domain area){
+		ArrayList<Sprite> found = new ArrayList<Sprite>();
+		query(area, found);
+		return found;
+	}
+
+	/**
+	 * Add all the sprites whose bounding box overlaps the area to a list.
+	 * Use this version to avoid creating a new list on each query.
+	 * 
+	 * @param area the area in world coordinates
+	 * @param found the list to add sprites to
+	 */
+	public static void query(Domain area, List<Sprite> found){
+		tree.query(area.left, area.top, area.right, area.bottom, found);
+	}
+
+	/**
+	 * Get the top-most visible sprite at a screen position. Sprites are tested
+	 * using Sprite.isOver() so the result matches mouse event handling.
+	 * 
+	 * @param px screen x position
+	 * @param py screen y position
+	 * @return the sprite nearest the viewer or null if none
+	 */
+	public static Sprite spriteAt(int px, int py){
+		float wx = worldX + px / worldScale;
+		float wy = worldY + py / worldScale;
+		Sprite top = null, s;
+		foundSprites.clear();
+		tree.query(wx, wy, wx, wy, foundSprites);
+		for(int i = 0; i < foundSprites.size(); i++){
+			s = foundSprites.get(i);
+			if(s.visible && !s.dead && (top == null || drawOrder.compare(s, top) > 0)
+					&& s.isOverWorld(wx, wy))
+				top = s;
+		}
+		foundSprites.clear();
+		return top;
+	}
+
+	/**
+	 * Find the nearest sprite hit by the line from x0,y0 to x1,y1 (world 
+	 * coordinates). Only sprites whose collision category has a bit in 
+	 * common with the mask are tested, use ALL_CATEGORIES to test every 
+	 * sprite. <br>
+	 * Sprites are found using the quadtree, then the ray is tested against 
+	 * each sprite's image box and finally its solid pixels. The pixel hit
+	 * is also set as the sprite's hit position so bite() can be used. <br>
+	 * The RayHit object returned is reused so it is only valid until the 
+	 * next call to this method.
+	 * 
+	 * @param x0 start of the ray
+	 * @param y0 start of the ray
+	 * @param x1 end of the ray
+	 * @param y1 end of the ray
+	 * @param mask the collision categories to test
+	 * @return the hit or null if no sprite was hit
+	 */
+	public static RayHit raycast(float x0, float y0, float x1, float y1, int mask){
+		return raycast(x0, y0, x1, y1, mask, rayHit) ? rayHit : null;
+	}
+
+	/**
+	 * Find the nearest sprite hit by the line from x0,y0 to x1,y1 (world 
+	 * coordinates) and store the result in the RayHit provided. <br>
+	 * See raycast(x0, y0, x1, y1, mask) for details.
+	 * 
+	 * @param x0 start of the ray
+	 * @param y0 start of the ray
+	 * @param x1 end of the ray
+	 * @param y1 end of the ray
+	 * @param mask the collision categories to test
+	 * @param hit stores the result
+	 * @return true if a sprite was hit
+	 */
+	public static boolean raycast(float x0, float y0, float x1, float y1, int mask, RayHit hit){
+		if(!castRay(x0, y0, x1, y1, mask, hit))
+			return false;
+		hit.sprite.setHitXY(hit.pixelX, hit.pixelY);
+		return true;
+	}
+
+	/**
+	 * INTERNAL USE ONLY <br>
+	 * Find the nearest sprite hit by the ray without changing the sprite's
+	 * hit position.
+	 * 
+	 * @param x0 start of the ray
+	 * @param y0 start of the ray
+	 * @param x1 end of the ray
+	 * @param y1 end of the ray
+	 * @param mask the collision categories to test
+	 * @param hit stores the result
+	 * @return true if a sprite was hit
+	 */
+	private static boolean castRay(float x0, float y0, float x1, float y1, int mask, RayHit hit){
+		hit.reset();
+		float dx = x1 - x0, dy = y1 - y0;
+		float len = (float)Math.sqrt(dx*dx + dy*dy);
+		if(len == 0)
+			return false;
+		dx /= len;
+		dy /= len;
+		foundSprites.clear();
+		tree.queryRay(x0, y0, x1, y1, foundSprites);
+		float best = len;
+		for(int i = 0; i < foundSprites.size(); i++){
+			Sprite s = foundSprites.get(i);
+			if(s.dead || !s.visible || (s.category & mask) == 0)
+				continue;
+			float t = s.rayTest(x0, y0, dx, dy, best, rayPixel);
+			if(t >= 0 && (hit.sprite == null || t < best)){
+				best = t;
+				hit.sprite = s;
+				hit.pixelX = rayPixel[0];
+				hit.pixelY = rayPixel[1];
+			}
+		}
+		foundSprites.clear();
+		if(hit.sprite == null)
+			return false;
+		hit.distance = best;
+		hit.x = x0 + dx * best;
+		hit.y = y0 + dy * best;
+		return true;
+	}
+
+	/**
+	 * See if there is a clear line of sight between two world positions.
+	 * Unlike raycast() this does not change the hit position of the 
+	 * blocking sprite.
+	 * 
+	 * @param x0 start position
+	 * @param y0 start position
+	 * @param x1 end position
+	 * @param y1 end position
+	 * @param mask the collision categories that block the line of sight
+	 * @return true if no sprite blocks the line
+	 */
+	public static boolean lineOfSight(float x0, float y0, float x1, float y1, int mask){
+		return !castRay(x0, y0, x1, y1, mask, sightHit);
+	}
+
+	/**
+	 * Add a trigger zone. The zone is checked every time updateSprites() 
+	 * is called and fires events as sprites enter, stay in and leave it.
+	 * 
+	 * @param zone the zone to add
+	 */
+	public static void addTriggerZone(TriggerZone zone){
+		if(zone != null && !zones.contains(zone))
+			zones.add(zone);
+	}
+
+	/**
+	 * Remove a trigger zone. No exit events are fired for the sprites 
+	 * inside it.
+	 * 
+	 * @param zone the zone to remove
+	 */
+	public static void removeTriggerZone(TriggerZone zone){
+		if(zones.remove(zone))
+			zone.clear();
+	}
+
+	/**
+	 * Get the number of trigger zones
+	 */
+	public static int getNbrTriggerZones(){
+		return zones.size();
+	}
+
+	/**
+	 * Check all the trigger zones and fire their events. This is done 
+	 * automatically by updateSprites() but can be called if sprites have 
+	 * been moved some other way e.g. by dragging.
+	 */
+	public static void checkTriggerZones(){
+		// Event handlers may add or remove zones so work from a copy
+		zoneBuffer = zones.toArray(zoneBuffer);
+		int n = zones.size();
+		for(int i = 0; i < n; i++){
+			TriggerZone zone = zoneBuffer[i];
+			zoneBuffer[i] = null;
+			if(zones.contains(zone))
+				zone.check(tree);
+		}
+	}
+
+	/**
+	 * Pack the frames of every image loaded so far into a texture atlas, 
+	 * sprites and particle fields will then be drawn from the atlas pages 
+	 * rather than from their own frame images. Images loaded afterwards 
+	 * are added to the atlas as they are loaded. <br>
+	 * 
+	 * If the image store has a budget the atlas is rebuilt (replacing this
+	 * TextureAtlas object) when more of it is taken by removed images than
+	 * by images still in the store. <br>
+	 * 
+	 * Sprites whose frames have been changed by bite() are drawn from their 
+	 * own frames until restoreImages() is used.
+	 * 
+	 * @param pageSize the width and height of each atlas page e.g. 2048
+	 * @param trim true to remove the transparent border round each frame
+	 * @return the texture atlas
+	 */
+	public static TextureAtlas buildTextureAtlas(int pageSize, boolean trim){
+		clearTextureAtlas();
+		atlas = new TextureAtlas(pageSize, trim);
+		ArrayList<ImageInfo> infos = new ArrayList<ImageInfo>(imageStore.values());
+		ArrayList<PImage[]> frameSets = new ArrayList<PImage[]>();
+		// Images still loading are added when they are ready
+		for(int i = infos.size() - 1; i >= 0; i--)
+			if(!infos.get(i).isLoaded())
+				infos.remove(i);
+		for(int i = 0; i < infos.size(); i++)
+			frameSets.add(infos.get(i).getFrames());
+		TextureAtlas.Region[][] regions = atlas.pack(frameSets);
+		for(int i = 0; i < infos.size(); i++)
+			infos.get(i).regions = regions[i];
+		return atlas;
+	}
+
+	/**
+	 * Get the texture atlas
+	 * @return the texture atlas or null if one has not been built
+	 */
+	public static TextureAtlas getTextureAtlas(){
+		return atlas;
+	}
+
+	/**
+	 * Stop using the texture atlas, all sprites and particle fields will be
+	 * drawn from their own frame images.
+	 */
+	public static void clearTextureAtlas(){
+		for(ImageInfo info : imageStore.values())
+			info.regions = null;
+		atlas = null;
+	}
+
+	/**
+	 * INTERNAL USE ONLY  <br>
+	 * Add the frames of a newly loaded image to the texture atlas
+	 * 
+	 * @param info
+	 */
+	private static void addToAtlas(ImageInfo info){
+		if(atlas == null || info.regions != null || !info.isLoaded())
+			return;
+		ArrayList<PImage[]> frameSets = new ArrayList<PImage[]>();
+		frameSets.add(info.getFrames());
+		info.regions = atlas.pack(frameSets)[0];
+	}
+
 	/**
 	 * INTERNAL USE ONLY  <br>
+	 * If asynchronous loading is on and the image has not been loaded 
+	 * before the ImageInfo is returned straight away and the image is 
+	 * loaded in the background.
 	 * 
 	 * @param theApplet
 	 * @param imageFname
@@ -295,57 +1420,522 @@ public class S4P implements PConstants {
 	 * @return the ImageInfo object for this image file
 	 */
 	public static ImageInfo getImageInfo(PApplet theApplet, String imageFname, int ncols, int nrows){
-		app = theApplet;
-		if(screenDomain == null)
-			screenDomain = new Domain(0,0,app.width,app.height);
+		return findImageInfo(theApplet, imageFname, null, ncols, nrows, asyncLoading);
+	}
 
-		Integer kcode = new Integer(imageFname.toLowerCase().hashCode());
-		ImageInfo imgInfo = null;
+	/**
+	 * INTERNAL USE ONLY  <br>
+	 * If asynchronous loading is on and the image has not been loaded 
+	 * before the ImageInfo is returned straight away and the image is 
+	 * loaded in the background.
+	 * 
+	 * @param theApplet
+	 * @param imageFname
+	 * @param alphaMaskFname
+	 * @param ncols
+	 * @param nrows
+	 * @return the ImageInfo object for this image file
+	 */
+	public static ImageInfo getImageInfo(PApplet theApplet, String imageFname, String alphaMaskFname, int ncols, int nrows){
+		return findImageInfo(theApplet, imageFname, alphaMaskFname, ncols, nrows, asyncLoading);
+	}
+
+	/**
+	 * Start loading an image in the background so that it is ready when 
+	 * sprites using it are created e.g. to load the images for the next 
+	 * scene while the current one is running. Does nothing if the image
+	 * has already been loaded.
+	 * 
+	 * @param theApplet
+	 * @param imageFname
+	 * @param ncols
+	 * @param nrows
+	 * @return the ImageInfo object for this image file (see ImageInfo.isReady())
+	 */
+	public static ImageInfo prefetchImage(PApplet theApplet, String imageFname, int ncols, int nrows){
+		return findImageInfo(theApplet, imageFname, null, ncols, nrows, true);
+	}
+
+	/**
+	 * Start loading an image and alpha mask in the background so that it 
+	 * is ready when sprites using it are created. Does nothing if the image
+	 * has already been loaded.
+	 * 
+	 * @param theApplet
+	 * @param imageFname
+	 * @param alphaMaskFname
+	 * @param ncols
+	 * @param nrows
+	 * @return the ImageInfo object for this image file (see ImageInfo.isReady())
+	 */
+	public static ImageInfo prefetchImage(PApplet theApplet, String imageFname, String alphaMaskFname, int ncols, int nrows){
+		return findImageInfo(theApplet, imageFname, alphaMaskFname, ncols, nrows, true);
+	}
 
-		if(imageStore.containsKey(kcode)) {
-			imgInfo = imageStore.get(kcode);
+	/**
+	 * INTERNAL USE ONLY  <br>
+	 * Get the ImageInfo from the store or, if it is not there, load the
+	 * image now or in the background.
+	 * 
+	 * @param theApplet
+	 * @param imageFname
+	 * @param alphaMaskFname null if there is no alpha mask
+	 * @param ncols
+	 * @param nrows
+	 * @param async true to load the image in the background
+	 * @return the ImageInfo object for this image file
+	 */
+	private static ImageInfo findImageInfo(PApplet theApplet, final String imageFname, 
+			final String alphaMaskFname, final int ncols, final int nrows, boolean async){
+		setApplet(theApplet);
+
+		final String key = storeKey(imageFname, alphaMaskFname);
+		ImageInfo imgInfo = imageStore.get(key);
+		// Try a failed image again, e.g. the file may have been fixed
+		if(imgInfo != null && imgInfo.isFailed()){
+			imageStore.remove(key);
+			imgInfo = null;
+		}
+
+		if(imgInfo != null) {
+			nbrImageHits++;
+		}
+		else if(async){
+			nbrImageMisses++;
+			final ImageInfo info = new ImageInfo(ncols, nrows);
+			imgInfo = info;
+			imageStore.put(key, imgInfo);
+			loadingImages.add(imgInfo);
+			if(loader == null)
+				loader = Executors.newFixedThreadPool(
+						Math.max(1, Runtime.getRuntime().availableProcessors() - 1), 
+						new ThreadFactory(){
+							public Thread newThread(Runnable r) {
+								Thread t = new Thread(r, "S4P image loader");
+								t.setDaemon(true);
+								return t;
+							}
+						});
+			loader.execute(new Runnable(){
+				public void run() {
+					ImageInfo loaded = null;
+					try {
+						loaded = loadImageInfo(key, imageFname, alphaMaskFname, ncols, nrows);
+					}
+					catch(RuntimeException e){
+						// Would otherwise be lost on the loader thread
+						SMessenger.message(IMAGE_LOAD_ERROR, null, new Object[] {imageFname, e});
+					}
+					finally {
+						info.imageLoaded(loaded);
+					}
+				}
+			});
 		}
 		else {
-			PImage image = app.loadImage(imageFname);
-			imgInfo = new ImageInfo(image, ncols, nrows);
-			imageStore.put(kcode, imgInfo);
+			nbrImageMisses++;
+			imgInfo = loadImageInfo(key, imageFname, alphaMaskFname, ncols, nrows);
+			imageStore.put(key, imgInfo);
+			addToAtlas(imgInfo);
+			// Nothing uses the new image yet so it must not be evicted
+			trimImageStore(imgInfo);
 		}
 		return imgInfo;
 	}
 
+	/*
+	 * The real paths of the files are the key so different files can never 
+	 * share an image and different names for the same file share one.
+	 */
+	private static String storeKey(String imageFname, String alphaMaskFname){
+		String key = realPath(imageFname);
+		return (alphaMaskFname == null) ? key : key + '\n' + realPath(alphaMaskFname);
+	}
+
+	/*
+	 * The canonical path of a local image file or the name unchanged if it
+	 * is not a local file (e.g. a URL). Names are remembered because this
+	 * is needed every time a sprite is created.
+	 */
+	private static String realPath(String fname){
+		String path = realPaths.get(fname);
+		if(path == null){
+			File f = sourceFile(fname);
+			path = fname;
+			if(f != null){
+				try {
+					path = f.getCanonicalPath();
+				}
+				catch(IOException e){
+					path = f.getAbsolutePath();
+				}
+			}
+			realPaths.put(fname, path);
+		}
+		return path;
+	}
+
 	/**
 	 * INTERNAL USE ONLY  <br>
+	 * Load a sheet from the asset cache if it has an up to date baked copy,
+	 * otherwise load the image (and alpha mask) and bake it for next time.
+	 * This is also called on the background loader threads.
+	 * 
+	 * @param key the image store key
+	 * @param imageFname
+	 * @param alphaMaskFname null if there is no alpha mask
+	 * @param ncols
+	 * @param nrows
+	 * @return the ImageInfo (never null)
+	 */
+	private static ImageInfo loadImageInfo(String key, String imageFname, String alphaMaskFname, int ncols, int nrows){
+		AssetCache cache = assetCache;
+		File src = null, srcMask = null;
+		if(cache != null){
+			src = sourceFile(imageFname);
+			srcMask = (alphaMaskFname == null) ? null : sourceFile(alphaMaskFname);
+			// Only sheets loaded from local files can be baked
+			if(src == null || (alphaMaskFname != null && srcMask == null))
+				cache = null;
+			else {
+				ImageInfo info = cache.load(key, src, srcMask, ncols, nrows);
+				if(info != null)
+					return info;
+			}
+		}
+		PImage image = loadImage(imageFname);
+		PImage amask = (alphaMaskFname == null) ? null : loadImage(alphaMaskFname);
+		ImageInfo info = new ImageInfo(image, amask, ncols, nrows);
+		if(cache != null && image != null)
+			cache.save(info, key, src, srcMask);
+		return info;
+	}
+
+	/**
+	 * INTERNAL USE ONLY  <br>
+	 * Find the file an image will be loaded from. Relative file names are
+	 * looked for in the sketch's data folder then the sketch folder.
+	 * 
+	 * @param fname the image filename
+	 * @return the file or null if it is not a local file
+	 */
+	private static File sourceFile(String fname){
+		File f = new File(fname);
+		if(!f.isAbsolute() && app != null){
+			f = new File(app.dataPath(fname));
+			if(!f.isFile())
+				f = new File(app.sketchPath(fname));
+		}
+		return f.isFile() ? f : null;
+	}
+
+	/**
+	 * Use a folder of baked sprite sheets to speed up loading images. When
+	 * a sheet is needed and the folder has an up to date baked copy it is 
+	 * loaded from that, otherwise the sheet is loaded from the image 
+	 * file(s) and baked for next time. <br>
+	 * Baked copies are ignored (and replaced) if the image or alpha mask 
+	 * file has been changed since it was baked. Only images loaded from 
+	 * local files are baked.
+	 * 
+	 * @param theApplet
+	 * @param folder the folder for the baked files (relative to the sketch 
+	 * folder) or null to stop using the asset cache
+	 */
+	public static void setAssetCache(PApplet theApplet, String folder){
+		if(folder == null){
+			assetCache = null;
+			return;
+		}
+		File f = new File(folder);
+		if(!f.isAbsolute() && theApplet != null)
+			f = new File(theApplet.sketchPath(folder));
+		assetCache = new AssetCache(f);
+	}
+
+	/**
+	 * Get the asset cache
+	 * @return the asset cache or null if one is not being used
+	 */
+	public static AssetCache getAssetCache(){
+		return assetCache;
+	}
+
+	/**
+	 * Bake a sprite sheet into the asset cache (see setAssetCache()) even
+	 * if it is already up to date. Can be used in headless mode to bake 
+	 * all the sheets for a sketch before it is run.
 	 * 
 	 * @param theApplet
 	 * @param imageFname
-	 * @param alphaMaskFname
 	 * @param ncols
 	 * @param nrows
-	 * @return the ImageInfo object for this image file
+	 * @return true if the sheet was baked
 	 */
-	public static ImageInfo getImageInfo(PApplet theApplet, String imageFname, String alphaMaskFname, int ncols, int nrows){
-		app = theApplet;
-		if(screenDomain == null)
-			screenDomain = new Domain(0,0,app.width,app.height);
+	public static boolean bakeImage(PApplet theApplet, String imageFname, int ncols, int nrows){
+		return bakeImage(theApplet, imageFname, null, ncols, nrows);
+	}
+
+	/**
+	 * Bake a sprite sheet with an alpha mask into the asset cache (see 
+	 * setAssetCache()) even if it is already up to date.
+	 * 
+	 * @param theApplet
+	 * @param imageFname
+	 * @param alphaMaskFname null if there is no alpha mask
+	 * @param ncols
+	 * @param nrows
+	 * @return true if the sheet was baked
+	 */
+	public static boolean bakeImage(PApplet theApplet, String imageFname, String alphaMaskFname, int ncols, int nrows){
+		setApplet(theApplet);
+		if(assetCache == null)
+			return false;
+		String key = storeKey(imageFname, alphaMaskFname);
+		File src = sourceFile(imageFname);
+		File srcMask = (alphaMaskFname == null) ? null : sourceFile(alphaMaskFname);
+		if(src == null || (alphaMaskFname != null && srcMask == null))
+			return false;
+		PImage image = loadImage(imageFname);
+		if(image == null)
+			return false;
+		PImage amask = (alphaMaskFname == null) ? null : loadImage(alphaMaskFname);
+		return assetCache.save(new ImageInfo(image, amask, ncols, nrows), key, src, srcMask);
+	}
+
+	/**
+	 * INTERNAL USE ONLY  <br>
+	 * A sprite or particle field has started using this image so it must
+	 * not be removed from the image store.
+	 * 
+	 * @param info
+	 */
+	static void acquireImage(ImageInfo info){
+		if(info != null)
+			info.refCount++;
+	}
+
+	/**
+	 * INTERNAL USE ONLY  <br>
+	 * A sprite or particle field has stopped using this image. Once no
+	 * sprites use it, it can be removed from the image store if the store 
+	 * is over budget.
+	 * 
+	 * @param info
+	 */
+	static void releaseImage(ImageInfo info){
+		if(info != null && info.refCount > 0 && --info.refCount == 0)
+			trimImageStore(null);
+	}
+
+	/**
+	 * Set the maximum number of bytes the image store should use for the 
+	 * images, frames and collision masks of loaded sprite sheets. When it
+	 * is over budget the least recently used sheets that are not used by 
+	 * any sprite or particle field are removed. <br>
+	 * The store can go over budget if all the images in it are in use. 
+	 * The default is no limit.
+	 * 
+	 * @param bytes the budget in bytes
+	 */
+	public static void setImageStoreBudget(long bytes){
+		imageBudget = (bytes > 0) ? bytes : Long.MAX_VALUE;
+		trimImageStore(null);
+	}
+
+	/**
+	 * Get the image store budget in bytes
+	 */
+	public static long getImageStoreBudget(){
+		return imageBudget;
+	}
+
+	/**
+	 * Get the approximate number of bytes used by all the images in the
+	 * image store including the texture atlas pages (if used).
+	 */
+	public static long getImageStoreBytes(){
+		long bytes = (atlas == null) ? 0 : atlas.getBytes();
+		for(ImageInfo info : imageStore.values())
+			bytes += info.getBytes();
+		return bytes;
+	}
+
+	/**
+	 * Get the number of sprite sheets in the image store
+	 */
+	public static int getNbrImagesStored(){
+		return imageStore.size();
+	}
+
+	/**
+	 * Get the number of times a requested image was already in the store
+	 */
+	public static int getNbrImageHits(){
+		return nbrImageHits;
+	}
+
+	/**
+	 * Get the number of times a requested image had to be loaded
+	 */
+	public static int getNbrImageMisses(){
+		return nbrImageMisses;
+	}
 
-		Integer kcode = new Integer((imageFname.toLowerCase() + alphaMaskFname.toLowerCase()).hashCode());
-		ImageInfo imgInfo = null;
+	/**
+	 * Get the number of images removed from the store to keep within budget
+	 */
+	public static int getNbrImageEvictions(){
+		return nbrImageEvictions;
+	}
 
-		if(imageStore.containsKey(kcode)) {
-			imgInfo = imageStore.get(kcode);
+	/**
+	 * INTERNAL USE ONLY  <br>
+	 * Remove the least recently used images that are not in use until the
+	 * store is within budget. Images still loading are never removed. <br>
+	 * Frames of removed images stay in the texture atlas (if used) until 
+	 * more of it is unused than used, then the atlas is rebuilt.
+	 * 
+	 * @param keep an image that must not be removed (may be null)
+	 */
+	private static void trimImageStore(ImageInfo keep){
+		if(imageBudget == Long.MAX_VALUE)
+			return;
+		long bytes = getImageStoreBytes();
+		Iterator<ImageInfo> iter = imageStore.values().iterator();
+		while(bytes > imageBudget && iter.hasNext()){
+			ImageInfo info = iter.next();
+			if(info.refCount == 0 && info.isReady() && info != keep){
+				bytes -= info.getBytes();
+				iter.remove();
+				if(info.regions != null){
+					atlas.free(info.regions);
+					info.regions = null;
+				}
+				nbrImageEvictions++;
+			}
 		}
-		else {
-			PImage image = app.loadImage(imageFname);
-			PImage amask = app.loadImage(alphaMaskFname);
-			imgInfo = new ImageInfo(image, amask, ncols, nrows);
-			imageStore.put(kcode, imgInfo);
+		// Reclaim the atlas area used by the removed images
+		if(atlas != null && atlas.isWasteful())
+			buildTextureAtlas(atlas.getPageSize(), atlas.isTrimmed());
+	}
+
+	/**
+	 * If set to true then images that have not been loaded before are 
+	 * loaded in the background and sprites created with them are not 
+	 * drawn (or are drawn using the placeholder image) until their image 
+	 * is ready. Particle fields can't spawn particles until their image 
+	 * is ready.
+	 * 
+	 * @param async true to load images in the background
+	 */
+	public static void setAsyncLoading(boolean async){
+		asyncLoading = async;
+	}
+
+	/**
+	 * Are images loaded in the background?
+	 */
+	public static boolean isAsyncLoading(){
+		return asyncLoading;
+	}
+
+	/**
+	 * Set the image to draw in place of sprites whose image is still being
+	 * loaded in the background. If null (the default) these sprites are 
+	 * not drawn.
+	 * 
+	 * @param image the placeholder image or null
+	 */
+	public static void setLoadingPlaceholder(PImage image){
+		placeholder = image;
+	}
+
+	/**
+	 * Get the number of images still being loaded in the background
+	 */
+	public static int getNbrImagesLoading(){
+		checkLoadedImages();
+		return loadingImages.size();
+	}
+
+	/**
+	 * Wait until all the images being loaded in the background are ready.
+	 * Useful at the end of a loading screen.
+	 */
+	public static void waitForImages(){
+		for(int i = 0; i < loadingImages.size(); i++)
+			loadingImages.get(i).getFrames();
+		checkLoadedImages();
+	}
+
+	/**
+	 * INTERNAL USE ONLY  <br>
+	 * Remove the images that have finished loading from the loading list 
+	 * and add them to the texture atlas (if used).
+	 */
+	private static void checkLoadedImages(){
+		int n = 0;
+		for(int i = 0; i < loadingImages.size(); i++){
+			ImageInfo info = loadingImages.get(i);
+			if(info.isReady())
+				addToAtlas(info);
+			else
+				loadingImages.set(n++, info);
+		}
+		while(loadingImages.size() > n)
+			loadingImages.remove(loadingImages.size() - 1);
+	}
+
+	/**
+	 * INTERNAL USE ONLY  <br>
+	 * Remember the applet (unless headless) and create the screen domain
+	 * 
+	 * @param theApplet
+	 */
+	private static void setApplet(PApplet theApplet){
+		if(!headless)
+			app = theApplet;
+		if(screenDomain == null)
+			screenDomain = new Domain(0, 0, getViewWidth(), getViewHeight());
+	}
+
+	/**
+	 * INTERNAL USE ONLY  <br>
+	 * Load an image using the PApplet or, in headless mode, directly from
+	 * the file system.
+	 * 
+	 * @param fname the image filename
+	 * @return the image or null if it could not be loaded
+	 */
+	private static PImage loadImage(String fname){
+		if(app != null){
+			PImage image = app.loadImage(fname);
+			if(image == null)
+				SMessenger.message(IMAGE_LOAD_ERROR, null, new Object[] {fname, null});
+			return image;
+		}
+		try {
+			BufferedImage bi = ImageIO.read(new File(fname));
+			if(bi == null){
+				// Not an image format ImageIO can read
+				SMessenger.message(IMAGE_LOAD_ERROR, null, new Object[] {fname, null});
+				return null;
+			}
+			PImage img = new PImage(bi.getWidth(), bi.getHeight(), ARGB);
+			bi.getRGB(0, 0, img.width, img.height, img.pixels, 0, img.width);
+			return img;
+		}
+		catch(IOException e){
+			SMessenger.message(IMAGE_LOAD_ERROR, null, new Object[] {fname, e});
+			return null;
 		}
-		return imgInfo;
 	}
 
 	/**
 	 * INTERNAL USE ONLY  <br>
-	 * Creates a set of frames based on an image already loaded.
+	 * Creates a new set of frames based on an image already loaded. Sprites
+	 * share the frames held by the ImageInfo (see ImageInfo.getFrames()).
 	 * 
 	 * @param info image details
 	 * @return an array of images from tiled image
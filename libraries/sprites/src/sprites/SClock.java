@@ -0,0 +1,151 @@
+/*
+  Part of the Sprites for Processing library 
+  	http://sprites4processing.lagers.org.uk
+	http://code.google.com/p/sprites4processing/svn/trunk
+
+  Copyright (c) 2009 Peter Lager
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+ */
+
+package sprites;
+
+/**
+ * The simulation clock used by S4P. <br>
+ * 
+ * It measures the time between frames using System.nanoTime(). In 
+ * its default (variable) mode the sprites are updated once per frame 
+ * with the measured frame time. <br>
+ * 
+ * If a fixed time step is set then the frame time is added to an
+ * accumulator and the sprites are updated in steps of exactly that 
+ * size, as many as fit in the accumulator (up to a maximum number of 
+ * steps per frame so that a slow frame cannot cause a spiral of ever 
+ * longer updates). The time left in the accumulator is used to produce 
+ * an interpolation value (alpha) between 0 and 1 used to draw the 
+ * sprites between their previous and current positions. 
+ * 
+ * @author Peter Lager
+ *
+ */
+public class SClock {
+
+	private long lastTime = 0;
+	private float frameTime = 0.0f;
+
+	private float step = 0.0f;
+	private int maxSteps = 5;
+	private double accumulator = 0.0;
+	private int nbrSteps = 1;
+	private float alpha = 1.0f;
+
+	/**
+	 * Measure the time since the last call and work out how many fixed
+	 * steps are due. Should be called once per frame.
+	 */
+	public void tick(){
+		long now = System.nanoTime();
+		if(lastTime == 0)
+			frameTime = 0.0f;
+		else 
+			frameTime = (now - lastTime) / 1.0e9f;
+		lastTime = now;
+		if(step > 0.0f){
+			accumulator += frameTime;
+			nbrSteps = (int)(accumulator / step);
+			if(nbrSteps > maxSteps){
+				// Too far behind so drop the time we can't catch up
+				nbrSteps = maxSteps;
+				accumulator = accumulator % step;
+			}
+			else
+				accumulator -= nbrSteps * step;
+			alpha = (float)(accumulator / step);
+		}
+		else {
+			nbrSteps = 1;
+			alpha = 1.0f;
+		}
+	}
+
+	/**
+	 * Forget the last time measured, the next call to tick() will give a
+	 * frame time of zero. Use this after pausing the sketch.
+	 */
+	public void reset(){
+		lastTime = 0;
+		accumulator = 0.0;
+		alpha = 1.0f;
+	}
+
+	/**
+	 * Use a fixed time step. 
+	 * 
+	 * @param step the time step in seconds (0 for variable time steps)
+	 * @param maxSteps the maximum number of steps in a single frame
+	 */
+	public void setFixedStep(float step, int maxSteps){
+		this.step = (step > 0.0f) ? step : 0.0f;
+		this.maxSteps = (maxSteps > 0) ? maxSteps : 1;
+		accumulator = 0.0;
+		nbrSteps = (step > 0.0f) ? 0 : 1;
+		alpha = 1.0f;
+	}
+
+	/**
+	 * Is a fixed time step being used?
+	 */
+	public boolean isFixedStep(){
+		return step > 0.0f;
+	}
+
+	/**
+	 * Get the fixed time step (seconds), zero if using variable steps.
+	 */
+	public float getStep(){
+		return step;
+	}
+
+	/**
+	 * Get the maximum number of fixed steps in a single frame
+	 */
+	public int getMaxSteps(){
+		return maxSteps;
+	}
+
+	/**
+	 * Get the time in seconds between the last two calls to tick()
+	 */
+	public float getFrameTime(){
+		return frameTime;
+	}
+
+	/**
+	 * Get the number of fixed steps to take this frame (always 1 if using 
+	 * variable steps)
+	 */
+	public int getNbrSteps(){
+		return nbrSteps;
+	}
+
+	/**
+	 * Get the interpolation value between the previous (0) and current (1)
+	 * sprite positions. Always 1 if using variable steps.
+	 */
+	public float getAlpha(){
+		return alpha;
+	}
+}
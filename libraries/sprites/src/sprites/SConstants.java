@@ -31,6 +31,19 @@ public interface SConstants {
 	public final static int PRESSED = 			0x00000302;
 	public final static int RELEASED = 			0x00000303;
 
+	// ### Collision detection methods ###
+	public final static int CC_COLLISION = 		0x00000401;	// Collision circles
+	public final static int BB_COLLISION = 		0x00000402;	// Image borders (boxes)
+	public final static int PP_COLLISION = 		0x00000403;	// Pixel level
+
+	// ### Trigger zone events ###
+	public final static int ENTERED = 			0x00000501;
+	public final static int STAYED = 			0x00000502;
+	public final static int EXITED = 			0x00000503;
+
+	// ### Collision categories ###
+	public final static int DEFAULT_CATEGORY =	0x00000001;
+	public final static int ALL_CATEGORIES =	0xffffffff;
 	
 	// ### Error MessageTypes ###
 	public final static int RUNTIME_ERROR = 	0xf0000000;
@@ -38,5 +51,8 @@ public interface SConstants {
 	public final static int MISSING = 			0x01000001;	// Can't find standard handler
 	public final static int NONEXISTANT = 		0x01000002;
 	public final static int EXCP_IN_HANDLER =	0x81000003;	// Exception in event handler
+	// File handling errors
+	public final static int IMAGE_LOAD_ERROR =	0x82000001;	// Can't load image file
+	public final static int ASSET_CACHE_ERROR =	0x82000002;	// Can't read or write asset cache file
 
 }
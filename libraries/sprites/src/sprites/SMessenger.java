@@ -41,6 +41,12 @@ public class SMessenger implements SConstants{
 		case EXCP_IN_HANDLER:
 			eventHandlerFailed(obj, info);
 			break;
+		case IMAGE_LOAD_ERROR:
+			imageLoadFailed(info);
+			break;
+		case ASSET_CACHE_ERROR:
+			assetCacheFailed(info);
+			break;
 		}
 	}
 	
@@ -66,6 +72,30 @@ public class SMessenger implements SConstants{
 		System.out.println("########################################################\n");
 	}
 
+	/**
+	 * 
+	 * @param info the file name and the exception (may be null)
+	 */
+	private static void imageLoadFailed(Object[] info) {
+		StringBuilder output = new StringBuilder();
+		output.append("Unable to load image file " + info[0]);
+		if(info.length > 1 && info[1] != null)
+			output.append("\n\tCaused by " + info[1].toString());
+		System.out.println(output.toString());
+	}
+
+	/**
+	 * 
+	 * @param info "read" or "write", the file and the exception
+	 */
+	private static void assetCacheFailed(Object[] info) {
+		StringBuilder output = new StringBuilder();
+		output.append("Unable to " + info[0] + " asset cache file " + info[1]);
+		if(info.length > 2 && info[2] != null)
+			output.append("\n\tCaused by " + info[2].toString());
+		System.out.println(output.toString());
+	}
+
 	/**
 	 * 
 	 * @param obj1 the object generating the method
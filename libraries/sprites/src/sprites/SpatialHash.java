@@ -0,0 +1,248 @@
+/*
+  Part of the Sprites for Processing library 
+  	http://sprites4processing.lagers.org.uk
+	http://code.google.com/p/sprites4processing/svn/trunk
+
+  Copyright (c) 2009 Peter Lager
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+ */
+
+package sprites;
+
+import java.util.ArrayList;
+
+/**
+ * CLASS FOR INTERNAL USE ONLY <br>
+ * 
+ * A uniform grid spatial hash used by S4P for the broad phase of
+ * collision detection. Each sprite is entered into every grid cell 
+ * overlapped by its world bounding box and only sprites sharing a 
+ * cell are reported as candidate pairs. <br>
+ * 
+ * The grid is stored in flat arrays (chained buckets) so that once it 
+ * has grown to the size needed by the sketch, rebuilding it every frame 
+ * does not create any objects.
+ * 
+ * @author Peter Lager
+ *
+ */
+public class SpatialHash {
+
+	private float cellSize;
+	private float invCellSize;
+
+	// Bucket table (size is a power of 2), -1 means empty
+	private int[] head = new int[0];
+	private int mask;
+
+	// One entry for every cell a sprite occupies
+	private Sprite[] entSprite = new Sprite[0];
+	private int[] entCx = new int[0], entCy = new int[0];
+	private int[] entNext = new int[0];
+	private float[] entLeft = new float[0], entTop = new float[0];
+	private float[] entRight = new float[0], entBottom = new float[0];
+	private int nbrEntries = 0;
+
+	/**
+	 * INTERNAL USE ONLY
+	 * @param cellSize the width and height of a grid cell in world units
+	 */
+	public SpatialHash(float cellSize){
+		setCellSize(cellSize);
+	}
+
+	/**
+	 * Change the grid cell size, the grid must be rebuilt afterwards.
+	 * @param cellSize the width and height of a grid cell in world units
+	 */
+	public void setCellSize(float cellSize){
+		this.cellSize = (cellSize > 1.0f) ? cellSize : 1.0f;
+		invCellSize = 1.0f / this.cellSize;
+	}
+
+	/**
+	 * Get the width/height of a grid cell in world units
+	 */
+	public float getCellSize(){
+		return cellSize;
+	}
+
+	/**
+	 * Get the number of sprite/cell entries in the grid
+	 */
+	public int getNbrEntries(){
+		return nbrEntries;
+	}
+
+	/**
+	 * Remove all entries from the grid
+	 */
+	public void clear(){
+		for(int i = 0; i < head.length; i++)
+			head[i] = -1;
+		nbrEntries = 0;
+	}
+
+	/**
+	 * Rebuild the grid from the sprites provided. Dead and invisible sprites 
+	 * and sprites that don't collide with any category can never collide so 
+	 * they are not added.
+	 * 
+	 * @param sprites
+	 */
+	public void build(SpriteLayers sprites){
+		clear();
+		for(int ln = 0; ln < sprites.nbrLayers(); ln++){
+			SpriteLayers.Layer layer = sprites.layer(ln);
+			for(int i = 0; i < layer.size; i++)
+				if(layer.items[i] != null)
+					add(layer.items[i]);
+		}
+	}
+
+	/**
+	 * Add a single sprite to every cell its bounding box overlaps.
+	 * 
+	 * @param s
+	 */
+	public void add(Sprite s){
+		if(s.dead || !s.visible || s.collidesWith == 0)
+			return;
+		float hw = s.getBoundsHalfWidth();
+		float hh = s.getBoundsHalfHeight();
+		float left = s.x - hw, right = s.x + hw;
+		float top = s.y - hh, bottom = s.y + hh;
+		int cx0 = cell(left), cx1 = cell(right);
+		int cy0 = cell(top), cy1 = cell(bottom);
+		for(int cy = cy0; cy <= cy1; cy++){
+			for(int cx = cx0; cx <= cx1; cx++){
+				if(nbrEntries == entSprite.length)
+					growEntries();
+				if(nbrEntries >= head.length / 2)
+					growTable();
+				int e = nbrEntries++;
+				int b = bucket(cx, cy);
+				entSprite[e] = s;
+				entCx[e] = cx;
+				entCy[e] = cy;
+				entLeft[e] = left;
+				entTop[e] = top;
+				entRight[e] = right;
+				entBottom[e] = bottom;
+				entNext[e] = head[b];
+				head[b] = e;
+			}
+		}
+	}
+
+	/**
+	 * Find all pairs of sprites whose bounding boxes overlap. Each pair is 
+	 * reported once no matter how many cells the sprites share. The pair 
+	 * objects are taken from the pool (which grows as needed) and added to
+	 * the candidates list.
+	 * 
+	 * @param pool recycled pair objects
+	 * @param candidates the list to add the candidate pairs to
+	 * @return the number of candidate pairs found
+	 */
+	public int findPairs(ArrayList<SpritePair> pool, ArrayList<SpritePair> candidates){
+		int count = 0;
+		for(int b = 0; b < head.length; b++){
+			for(int i = head[b]; i != -1; i = entNext[i]){
+				for(int j = entNext[i]; j != -1; j = entNext[j]){
+					// Different cells can share the same bucket
+					if(entCx[i] != entCx[j] || entCy[i] != entCy[j])
+						continue;
+					if(entSprite[i] == entSprite[j])
+						continue;
+					if(!entSprite[i].canCollideWith(entSprite[j]))
+						continue;
+					if(entRight[i] <= entLeft[j] || entRight[j] <= entLeft[i]
+					        || entBottom[i] <= entTop[j] || entBottom[j] <= entTop[i])
+						continue;
+					// Only report the pair in the cell containing the top-left
+					// corner of the overlap so it is not reported twice.
+					if(cell(Math.max(entLeft[i], entLeft[j])) != entCx[i]
+					        || cell(Math.max(entTop[i], entTop[j])) != entCy[i])
+						continue;
+					SpritePair pair;
+					if(count < pool.size())
+						pair = pool.get(count);
+					else {
+						pair = new SpritePair();
+						pool.add(pair);
+					}
+					pair.spriteA = entSprite[i];
+					pair.spriteB = entSprite[j];
+					candidates.add(pair);
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	private int cell(float v){
+		return (int) Math.floor(v * invCellSize);
+	}
+
+	private int bucket(int cx, int cy){
+		return ((cx * 73856093) ^ (cy * 19349663)) & mask;
+	}
+
+	private void growEntries(){
+		int n = Math.max(64, entSprite.length * 2);
+		Sprite[] s = new Sprite[n];
+		System.arraycopy(entSprite, 0, s, 0, nbrEntries);
+		entSprite = s;
+		entCx = grow(entCx, n);
+		entCy = grow(entCy, n);
+		entNext = grow(entNext, n);
+		entLeft = grow(entLeft, n);
+		entTop = grow(entTop, n);
+		entRight = grow(entRight, n);
+		entBottom = grow(entBottom, n);
+	}
+
+	/*
+	 * Doubles the bucket table and re-chains the existing entries
+	 */
+	private void growTable(){
+		int n = Math.max(128, head.length * 2);
+		head = new int[n];
+		mask = n - 1;
+		for(int i = 0; i < n; i++)
+			head[i] = -1;
+		for(int e = 0; e < nbrEntries; e++){
+			int b = bucket(entCx[e], entCy[e]);
+			entNext[e] = head[b];
+			head[b] = e;
+		}
+	}
+
+	private int[] grow(int[] a, int n){
+		int[] na = new int[n];
+		System.arraycopy(a, 0, na, 0, a.length);
+		return na;
+	}
+
+	private float[] grow(float[] a, int n){
+		float[] na = new float[n];
+		System.arraycopy(a, 0, na, 0, a.length);
+		return na;
+	}
+}
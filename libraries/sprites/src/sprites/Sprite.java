@@ -25,6 +25,7 @@ package sprites;
 
 import java.awt.event.MouseEvent;
 import java.lang.reflect.Method;
+import java.util.List;
 
 import processing.core.PApplet;
 import processing.core.PConstants;
@@ -43,12 +44,15 @@ import processing.core.PImage;
  * (3) Pixel level - collision based on overlapping non-transparent pixels <br>
  * (4) Overlap - similar to image border but there must be a user defined percentage overlap<br><br>
  * 
- * Methods 2, 3 & 4 will not work if the image has been rotated, attempting to use
- * these on a rotated image will cause method 1 to be used instead.<br>
- * Method 3 will not work with scaled images, attempting to use this method on a 
- * scaled image will cause method 2 to be used. <br>
+ * Methods 2 & 4 use a separating axis test on the oriented image boxes if
+ * either image has been rotated, method 4 then ignores the percentage.<br>
+ * Method 3 works with rotated and scaled images by sampling one sprite's 
+ * pixels through the transformation of the other. <br>
  * In method 1 the collision detection radius is calculated as (width+height)/2 <br><br>
  * 
+ * If S4P.initHeadless() has been called sprites can be created with a null
+ * PApplet, they can be updated and tested for collisions but not drawn.<br><br>
+ * 
  * 
  * @author Peter Lager
  *
@@ -93,6 +97,26 @@ public class Sprite implements Comparable<Object>, PConstants, SConstants {
 	protected float ax, ay;			// Acceleration
 	protected float rot;			// Rotation (radians)
 	protected float scale = 1.0f;
+	// Position and rotation before the last update (for interpolation)
+	protected float prevX, prevY, prevRot;
+
+	// Continuous collision detection, sweepX/Y is the position at the start 
+	// of the frame (S4P update number sweepFrame)
+	protected boolean continuousCollision = false;
+	protected float sweepX, sweepY;
+	protected int sweepFrame = -1;
+	protected float toi = 1.0f;		// Time of impact (0-1) of last swept test
+
+	// Collision filtering, two sprites are only tested if each one's 
+	// category has a bit in common with the other one's collidesWith
+	protected int category = DEFAULT_CATEGORY;
+	protected int collidesWith = ALL_CATEGORIES;
+
+	// Unique id and a counter that changes whenever anything that affects
+	// collision detection changes. Used by the S4P collision cache.
+	private static int nextID = 0;
+	protected final int spriteID = nextID++;
+	protected int version = 0;
 
 	protected Integer zOrder = 0;	// Z order for drawing
 
@@ -114,6 +138,12 @@ public class Sprite implements Comparable<Object>, PConstants, SConstants {
 	protected PImage[] frames;
 	protected PImage[] colFrames = null;
 	protected ImageInfo info;
+	// Frames and collision masks are shared with other sprites using the 
+	// same image unless the frames have been modified by bite()
+	protected CollisionMask[] masks = null;
+	protected boolean framesModified = false;
+	// True while the image is being loaded in the background
+	protected boolean loading = false;
 	/*
 	 * These variables relate to the image
 	 */
@@ -121,6 +151,19 @@ public class Sprite implements Comparable<Object>, PConstants, SConstants {
 	protected float halfHeight, height;
 
 	protected int hit_x, hit_y;
+	// Returned by the pixel level tests that don't change the sprites
+	protected static final long NO_HIT = -1L;
+
+	/*
+	 * INTERNAL USE ONLY
+	 * World bounding box and position in the S4P quadtree
+	 */
+	protected float boundsLeft, boundsTop, boundsRight, boundsBottom;
+	protected QuadTree.Node qtNode = null;
+	protected int qtIndex = -1;
+	// Layer and position in the S4P draw order
+	protected SpriteLayers.Layer layer = null;
+	protected int layerIndex = -1;
 	
 	/** The object to handle the event */
 	protected Object eventHandlerObject = null;
@@ -219,16 +262,69 @@ public class Sprite implements Comparable<Object>, PConstants, SConstants {
 	 * @param zOrder the higher the z value the nearer the viewer
 	 */
 	private void ctorCore(String imageFname, int cols, int rows, int zOrder){
-		frames = S4P.getFrames(info);
+		this.zOrder = zOrder;
+		// If the image is being loaded in the background the frames are 
+		// set up when it is ready (see checkLoaded()). If it could not be
+		// loaded the sprite stays loading (see isLoadFailed())
+		if(!info.isLoaded() || !initFrames())
+			loading = true;
+		S4P.registerSprite(this);
+//		
+	}
+
+	/*
+	 * Use the frames from the image and set the sprite size from them.
+	 * Returns false if there are no frames to use.
+	 */
+	private boolean initFrames(){
+		// Frames are shared with other sprites until bitten
+		PImage[] f = info.getFrames();
+		if(f == null)
+			return false;
+		frames = f;
 		width = frames[0].width;
 		height = frames[0].height;
 		// Next are used in collision detection
 		halfWidth = width/2;
 		halfHeight = height/2;
-		colRadius = (width + height)/4;
-		this.zOrder = zOrder;
-		S4P.registerSprite(this);
-//		
+		if(colRadius == 0)
+			colRadius = (width + height)/4;
+		return true;
+	}
+
+	/**
+	 * INTERNAL USE ONLY <br>
+	 * If the image was being loaded in the background and is now ready 
+	 * then set up the frames. Called by update() and draw().
+	 * 
+	 * @return true if the sprite's frames are ready
+	 */
+	protected boolean checkLoaded(){
+		if(loading && info.isLoaded() && initFrames()){
+			loading = false;
+			version++;
+		}
+		return !loading;
+	}
+
+	/**
+	 * Returns true if the sprite's image is still being loaded in the 
+	 * background. Until it is ready the sprite has no size, is drawn
+	 * using the loading placeholder (if any) and will not collide with 
+	 * other sprites. <br>
+	 * If the image could not be loaded this stays true, use 
+	 * isLoadFailed() to find out if that happened.
+	 */
+	public boolean isLoading(){
+		return !checkLoaded();
+	}
+
+	/**
+	 * Returns true if the sprite's image could not be loaded. The sprite will never be ready so it should 
+	 * be removed (see ImageInfo.isFailed()).
+	 */
+	public boolean isLoadFailed(){
+		return loading && info.isFailed();
 	}
 
 	protected void calcCollisionImage(){
@@ -238,7 +334,7 @@ public class Sprite implements Comparable<Object>, PConstants, SConstants {
 			colFrames[f].loadPixels();
 			frames[f].loadPixels();
 			for(int p = 0; p < frames[f].pixels.length; p++){
-				if( app.alpha(frames[f].pixels[p]) < ALPHALEVEL )
+				if( (frames[f].pixels[p] >>> 24) < ALPHALEVEL )
 					colFrames[f].pixels[p] = 0;
 				else
 					colFrames[f].pixels[p] = S4P.colColor;
@@ -259,6 +355,8 @@ public class Sprite implements Comparable<Object>, PConstants, SConstants {
 	 * @param mouse_repond true or false
 	 */
 	public void respondToMouse(boolean mouse_repond){
+		if(app == null)
+			return;
 		try{
 			app.unregisterMouseEvent(this);
 		}
@@ -334,10 +432,48 @@ public class Sprite implements Comparable<Object>, PConstants, SConstants {
 
 	/**
 	 * Restore images back to their original state. Useful if
-	 * you have used the bite() method.
+	 * you have used the bite() method. The sprite goes back to using the
+	 * frames shared with other sprites using the same image.
 	 */
 	public void restoreImages(){
-		frames = S4P.getFrames(info);	
+		if(loading)
+			return;
+		frames = info.getFrames();
+		framesModified = false;
+		masks = null;
+		version++;
+	}
+
+	/*
+	 * Make a private copy of the frames so they can be changed
+	 */
+	private static PImage[] copyFrames(PImage[] src){
+		PImage[] copy = new PImage[src.length];
+		for(int f = 0; f < src.length; f++){
+			src[f].loadPixels();
+			copy[f] = new PImage(src[f].width, src[f].height, ARGB);
+			copy[f].loadPixels();
+			System.arraycopy(src[f].pixels, 0, copy[f].pixels, 0, src[f].pixels.length);
+			copy[f].updatePixels();
+		}
+		return copy;
+	}
+
+	/**
+	 * INTERNAL USE ONLY <br>
+	 * Get the collision mask for the current frame. Sprites share the masks
+	 * made for their image unless the frames have been changed with bite().
+	 * 
+	 * @return the collision mask for the current frame
+	 */
+	protected CollisionMask getCollisionMask(){
+		if(masks == null || masks[0].threshold != ALPHALEVEL){
+			if(framesModified)
+				masks = CollisionMask.makeMasks(frames, ALPHALEVEL);
+			else
+				masks = info.getMasks();
+		}
+		return masks[frameCurrent];
 	}
 
 	/**
@@ -346,8 +482,40 @@ public class Sprite implements Comparable<Object>, PConstants, SConstants {
 	 * @param deltaTime the time in seconds since last called
 	 */
 	public void update(float deltaTime){
+		if(loading)
+			checkLoaded();
+		if(sweepFrame != S4P.updateCount){
+			sweepX = x;
+			sweepY = y;
+			sweepFrame = S4P.updateCount;
+		}
+		prevX = x;
+		prevY = y;
+		prevRot = rot;
+		int frame = frameCurrent;
 		updatePosition(deltaTime);
 		updateImageAnimation(deltaTime);
+		if(x != prevX || y != prevY || rot != prevRot || frameCurrent != frame)
+			version++;
+	}
+
+	/**
+	 * Tell S4P that this sprite has changed in a way that could change
+	 * the result of a collision test. <br>
+	 * This is done automatically by the setter methods, bite() and update()
+	 * so is only needed if a child class changes the sprite's position, 
+	 * rotation, scale or image directly.
+	 */
+	public void markChanged(){
+		version++;
+	}
+
+	/**
+	 * Called by S4P when this dead sprite has been removed from the list of
+	 * sprites to be updated and displayed. It does nothing but can be 
+	 * overridden in a child class e.g. to return the sprite to a pool.
+	 */
+	public void onRemoved(){
 	}
 
 	/**
@@ -366,6 +534,47 @@ public class Sprite implements Comparable<Object>, PConstants, SConstants {
 		return true;
 	}
 
+	/**
+	 * INTERNAL USE ONLY <br>
+	 * Half the width of the world aligned box that encloses both the 
+	 * (rotated and scaled) image and the collision circle.
+	 * 
+	 * @return half the bounding box width in world units
+	 */
+	protected float getBoundsHalfWidth(){
+		float hw = halfWidth;
+		if(rot != 0)
+			hw = Math.abs((float)Math.cos(rot))*halfWidth + Math.abs((float)Math.sin(rot))*halfHeight;
+		return Math.max(hw, colRadius) * scale;
+	}
+
+	/**
+	 * INTERNAL USE ONLY <br>
+	 * Half the height of the world aligned box that encloses both the 
+	 * (rotated and scaled) image and the collision circle.
+	 * 
+	 * @return half the bounding box height in world units
+	 */
+	protected float getBoundsHalfHeight(){
+		float hh = halfHeight;
+		if(rot != 0)
+			hh = Math.abs((float)Math.sin(rot))*halfWidth + Math.abs((float)Math.cos(rot))*halfHeight;
+		return Math.max(hh, colRadius) * scale;
+	}
+
+	/**
+	 * INTERNAL USE ONLY <br>
+	 * Calculate the world bounding box for this sprite.
+	 */
+	protected void calcBounds(){
+		float hw = getBoundsHalfWidth();
+		float hh = getBoundsHalfHeight();
+		boundsLeft = x - hw;
+		boundsRight = x + hw;
+		boundsTop = y - hh;
+		boundsBottom = y + hh;
+	}
+
 	/**
 	 * Updates the image to be displayed
 	 * 
@@ -555,8 +764,10 @@ public class Sprite implements Comparable<Object>, PConstants, SConstants {
 			if(focusIsWith == this && draggable){
 				beingDragged = true;
 				PointF2D p = S4P.pixel2world(app.mouseX, app.mouseY);
-				x = p.x;
-				y = p.y;
+				x = prevX = sweepX = p.x;
+				y = prevY = sweepY = p.y;
+				version++;
+				S4P.spriteMoved(this);
 				eventType = DRAGGED;
 				fireEvent();
 			}
@@ -569,13 +780,28 @@ public class Sprite implements Comparable<Object>, PConstants, SConstants {
 	 * 
 	 */
 	public void draw(){
-		if(visible && !dead){
+		if(visible && !dead && app != null){
+			if(loading && !checkLoaded() && S4P.placeholder == null)
+				return;
 			app.pushMatrix();
-			app.translate(x, y);
-			app.scale(scale);
-			app.rotate(rot);
-			app.image(frames[frameCurrent],0,0,width,height);
-			if(S4P.collisionAreasVisible)
+			if(S4P.interpolation < 1.0f){
+				float a = S4P.interpolation;
+				app.translate(prevX + (x - prevX) * a, prevY + (y - prevY) * a);
+				app.scale(scale);
+				app.rotate(prevRot + (rot - prevRot) * a);
+			}
+			else {
+				app.translate(x, y);
+				app.scale(scale);
+				app.rotate(rot);
+			}
+			if(loading)
+				app.image(S4P.placeholder, 0, 0);
+			else if(info.regions != null && !framesModified)
+				info.regions[frameCurrent].draw(app, 0, 0, width, height);
+			else
+				app.image(frames[frameCurrent],0,0,width,height);
+			if(S4P.collisionAreasVisible && !loading)
 				drawCollisionArea();
 			app.popMatrix();
 		}
@@ -629,27 +855,112 @@ public class Sprite implements Comparable<Object>, PConstants, SConstants {
 	 */
 	public boolean isOver(int mx, int my){
 		// Calculate world position of mx, my
-		PointF2D p = S4P.pixel2world(mx, my);
+		return isOverWorld(S4P.worldX + mx / S4P.worldScale, S4P.worldY + my / S4P.worldScale);
+	}
+
+	/**
+	 * Determines whether the world position wx,wy is over the sprite using 
+	 * the same rules as isOver(). Nothing is created so this can be used 
+	 * freely.
+	 * 
+	 * @param wx world x position
+	 * @param wy world y position
+	 * @return true if the position is over the sprite
+	 */
+	public boolean isOverWorld(float wx, float wy){
+		if(loading)
+			return false;
 		if(rot != 0){
-			return (p.x-x)*(p.x-x)+(p.y-y)*(p.y-y) < colRadius*colRadius*scale*scale;
+			return (wx-x)*(wx-x)+(wy-y)*(wy-y) < colRadius*colRadius*scale*scale;
 		}
 		else if(scale != 1){
-			return(p.x>x-halfWidth*scale && p.x<x+halfWidth*scale 
-					&& p.y>y-halfHeight*scale&& p.y<y+halfHeight*scale);
+			return(wx>x-halfWidth*scale && wx<x+halfWidth*scale 
+					&& wy>y-halfHeight*scale&& wy<y+halfHeight*scale);
 		}
-		else if(Math.abs(p.x-x)<halfWidth && Math.abs(p.y-y)<halfHeight){
-			PImage c = frames[frameCurrent];
-			int xx = (int)(p.x-x+halfWidth);
-			int yy = (int)(p.y-y+halfHeight);
-			int pn = yy * c.width + xx;
-			c.loadPixels();
-			if(app.alpha(c.pixels[pn]) > ALPHALEVEL){
-				return true;
-			}
+		else if(Math.abs(wx-x)<halfWidth && Math.abs(wy-y)<halfHeight){
+			return getCollisionMask().isSolid((int)(wx-x+halfWidth), (int)(wy-y+halfHeight));
 		}
 		return false;
 	}
 
+	/**
+	 * INTERNAL USE ONLY <br>
+	 * Find where a ray first hits a solid pixel of this sprite. The ray is 
+	 * tested against the image box first then the pixels the ray passes 
+	 * through are visited in order until a solid one is found.
+	 * 
+	 * @param ox world x of the ray origin
+	 * @param oy world y of the ray origin
+	 * @param dx x component of the (unit) ray direction
+	 * @param dy y component of the (unit) ray direction
+	 * @param tMax the maximum distance along the ray
+	 * @param pixel if there is a hit the pixel hit is stored here
+	 * @return the distance along the ray of the hit or -1 if none
+	 */
+	protected float rayTest(float ox, float oy, float dx, float dy, float tMax, int[] pixel){
+		if(loading)
+			return -1;
+		// Ray in image pixel coordinates
+		float c = (float)Math.cos(rot), s = (float)Math.sin(rot);
+		float rx = ox - x, ry = oy - y;
+		float u = (rx*c + ry*s) / scale + halfWidth;
+		float v = (-rx*s + ry*c) / scale + halfHeight;
+		float du = (dx*c + dy*s) / scale;
+		float dv = (-dx*s + dy*c) / scale;
+		CollisionMask mask = getCollisionMask();
+		int w = mask.width, h = mask.height;
+		// Clip the ray to the image box
+		float t0 = 0, t1 = tMax;
+		if(du == 0){
+			if(u < 0 || u >= w) return -1;
+		}
+		else {
+			float ta = -u / du, tb = (w - u) / du;
+			t0 = Math.max(t0, Math.min(ta, tb));
+			t1 = Math.min(t1, Math.max(ta, tb));
+		}
+		if(dv == 0){
+			if(v < 0 || v >= h) return -1;
+		}
+		else {
+			float ta = -v / dv, tb = (h - v) / dv;
+			t0 = Math.max(t0, Math.min(ta, tb));
+			t1 = Math.min(t1, Math.max(ta, tb));
+		}
+		if(t0 > t1)
+			return -1;
+		// Step from pixel to pixel along the ray
+		float pu = u + du*t0, pv = v + dv*t0;
+		int ix = Math.min(w - 1, Math.max(0, (int)Math.floor(pu)));
+		int iy = Math.min(h - 1, Math.max(0, (int)Math.floor(pv)));
+		int stepX = du > 0 ? 1 : -1, stepY = dv > 0 ? 1 : -1;
+		float tDeltaX = du != 0 ? Math.abs(1 / du) : Float.MAX_VALUE;
+		float tDeltaY = dv != 0 ? Math.abs(1 / dv) : Float.MAX_VALUE;
+		float tNextX = du > 0 ? t0 + (ix + 1 - pu) / du : du < 0 ? t0 + (ix - pu) / du : Float.MAX_VALUE;
+		float tNextY = dv > 0 ? t0 + (iy + 1 - pv) / dv : dv < 0 ? t0 + (iy - pv) / dv : Float.MAX_VALUE;
+		float t = t0;
+		while(t <= t1){
+			if(mask.isSolid(ix, iy)){
+				pixel[0] = ix;
+				pixel[1] = iy;
+				return t;
+			}
+			if(tNextX < tNextY){
+				t = tNextX;
+				tNextX += tDeltaX;
+				ix += stepX;
+				if(ix < 0 || ix >= w) break;
+			}
+			else {
+				t = tNextY;
+				tNextY += tDeltaY;
+				iy += stepY;
+				if(iy < 0 || iy >= h) break;
+			}
+		}
+		return -1;
+	}
+
 	/**
 	 * See if the sprite's collision circles overlap i.e. collision
 	 * 
@@ -657,7 +968,10 @@ public class Sprite implements Comparable<Object>, PConstants, SConstants {
 	 * @return true if sprite collision circles overlap (collision)
 	 */
 	public boolean cc_collision(Sprite spriteB) {
-		if(!visible || !spriteB.visible) return false;
+		if(!visible || !spriteB.visible || loading || spriteB.loading) return false;
+
+		if(continuousCollision || spriteB.continuousCollision)
+			return swept_cc_collision(spriteB);
 
 		float d;
 		d = (x-spriteB.x)*(x-spriteB.x) + (y-spriteB.y)*(y-spriteB.y);
@@ -666,6 +980,227 @@ public class Sprite implements Comparable<Object>, PConstants, SConstants {
 		return (d < 0.0f);
 	}
 
+	/**
+	 * See if the sprites' collision circles touch at any time during this 
+	 * frame's movement, i.e. between their positions before and after the 
+	 * last call to S4P.updateSprites(). <br>
+	 * The time of impact is available afterwards from both sprites with 
+	 * getTimeOfImpact(). <br>
+	 * This is used automatically by cc_collision() if either sprite has
+	 * continuous collision enabled.
+	 * 
+	 * @param spriteB
+	 * @return true if the collision circles touched during the frame
+	 */
+	public boolean swept_cc_collision(Sprite spriteB){
+		if(!visible || !spriteB.visible || loading || spriteB.loading) return false;
+		float t = sweptCircleTime(spriteB);
+		if(t < 0)
+			return false;
+		toi = spriteB.toi = t;
+		return true;
+	}
+
+	/**
+	 * INTERNAL USE ONLY <br>
+	 * Swept circle test that does not change either sprite.
+	 * 
+	 * @param spriteB
+	 * @return the time of impact (0-1) or -1 if the circles don't touch
+	 */
+	protected float sweptCircleTime(Sprite spriteB){
+		float r = colRadius*scale + spriteB.colRadius*spriteB.scale;
+		// Start position and movement of B relative to A
+		float px = spriteB.getSweepX() - getSweepX();
+		float py = spriteB.getSweepY() - getSweepY();
+		float dx = (spriteB.x - spriteB.getSweepX()) - (x - getSweepX());
+		float dy = (spriteB.y - spriteB.getSweepY()) - (y - getSweepY());
+		float c = px*px + py*py - r*r;
+		float t;
+		if(c < 0)
+			t = 0;	// already touching at the start
+		else {
+			float a = dx*dx + dy*dy;
+			float b = px*dx + py*dy;
+			float disc = b*b - a*c;
+			if(a == 0 || b >= 0 || disc < 0)
+				return -1;	// not moving, moving apart or missing
+			t = (-b - (float)Math.sqrt(disc)) / a;
+			if(t > 1)
+				return -1;
+		}
+		return t;
+	}
+
+	/**
+	 * See if the sprites' boxes touch at any time during this frame's 
+	 * movement, i.e. between their positions before and after the last call 
+	 * to S4P.updateSprites(). Rotated sprites use the world aligned box 
+	 * that encloses the rotated image. <br>
+	 * The time of impact is available afterwards from both sprites with 
+	 * getTimeOfImpact(). <br>
+	 * This is used automatically by bb_collision() if either sprite has
+	 * continuous collision enabled.
+	 * 
+	 * @param spriteB
+	 * @return true if the boxes touched during the frame
+	 */
+	public boolean swept_bb_collision(Sprite spriteB){
+		if(!visible || !spriteB.visible || loading || spriteB.loading) return false;
+		float t = sweptBoxTime(spriteB);
+		if(t < 0)
+			return false;
+		toi = spriteB.toi = t;
+		return true;
+	}
+
+	/**
+	 * INTERNAL USE ONLY <br>
+	 * Swept box test that does not change either sprite.
+	 * 
+	 * @param spriteB
+	 * @return the time of impact (0-1) or -1 if the boxes don't touch
+	 */
+	protected float sweptBoxTime(Sprite spriteB){
+		float ex = imageHalfWidth() + spriteB.imageHalfWidth();
+		float ey = imageHalfHeight() + spriteB.imageHalfHeight();
+		// Start position and movement of B relative to A
+		float px = spriteB.getSweepX() - getSweepX();
+		float py = spriteB.getSweepY() - getSweepY();
+		float dx = (spriteB.x - spriteB.getSweepX()) - (x - getSweepX());
+		float dy = (spriteB.y - spriteB.getSweepY()) - (y - getSweepY());
+		// Find when B's centre is inside both slabs of the combined box
+		float tEnter = 0, tExit = 1;
+		if(dx == 0){
+			if(Math.abs(px) >= ex) return -1;
+		}
+		else {
+			float t1 = (-ex - px) / dx, t2 = (ex - px) / dx;
+			tEnter = Math.max(tEnter, Math.min(t1, t2));
+			tExit = Math.min(tExit, Math.max(t1, t2));
+		}
+		if(dy == 0){
+			if(Math.abs(py) >= ey) return -1;
+		}
+		else {
+			float t1 = (-ey - py) / dy, t2 = (ey - py) / dy;
+			tEnter = Math.max(tEnter, Math.min(t1, t2));
+			tExit = Math.min(tExit, Math.max(t1, t2));
+		}
+		if(tEnter >= tExit)
+			return -1;
+		return tEnter;
+	}
+
+	/*
+	 * Position at the start of this frame's movement
+	 */
+	private float getSweepX(){
+		return (sweepFrame == S4P.updateCount) ? sweepX : x;
+	}
+
+	private float getSweepY(){
+		return (sweepFrame == S4P.updateCount) ? sweepY : y;
+	}
+
+	/**
+	 * Enable continuous collision detection for this sprite. When enabled 
+	 * cc_collision() and bb_collision() test the whole of the movement made 
+	 * during the frame, not just the final positions, so fast sprites can't 
+	 * pass through other sprites when the frame time is large. <br>
+	 * Only use it for fast moving sprites such as bullets.
+	 * 
+	 * @param continuous true to enable
+	 */
+	public void setContinuousCollision(boolean continuous){
+		continuousCollision = continuous;
+	}
+
+	/**
+	 * Is continuous collision detection enabled?
+	 */
+	public boolean isContinuousCollision(){
+		return continuousCollision;
+	}
+
+	/**
+	 * Set the collision category for this sprite. The category is a bit mask
+	 * and would normally have just one bit set e.g. <br>
+	 * <pre>
+	 * final int BULLET = 1, ENEMY = 2, PICKUP = 4;
+	 * </pre>
+	 * Sprites are grouped by category so they can be retrieved with 
+	 * S4P.getGroup(). The default category is DEFAULT_CATEGORY.
+	 * 
+	 * @param category bit mask of the category
+	 */
+	public void setCollisionCategory(int category){
+		if(this.category != category){
+			this.category = category;
+			S4P.groupsChanged();
+		}
+	}
+
+	/**
+	 * Get the collision category bit mask.
+	 */
+	public int getCollisionCategory(){
+		return category;
+	}
+
+	/**
+	 * Set which categories of sprite this sprite can collide with. <br>
+	 * The default is ALL_CATEGORIES, use 0 to stop this sprite colliding
+	 * with anything.
+	 * 
+	 * @param categories bit mask of categories this sprite collides with
+	 */
+	public void setCollidesWith(int categories){
+		collidesWith = categories;
+	}
+
+	/**
+	 * Get the bit mask of the categories this sprite collides with.
+	 */
+	public int getCollidesWith(){
+		return collidesWith;
+	}
+
+	/**
+	 * See if the collision categories of the two sprites allow them to
+	 * collide. Both sprites must accept the other's category.
+	 * 
+	 * @param spriteB
+	 * @return true if these sprites can collide
+	 */
+	public boolean canCollideWith(Sprite spriteB){
+		if(loading || spriteB.loading)
+			return false;
+		return (category & spriteB.collidesWith) != 0 && (spriteB.category & collidesWith) != 0;
+	}
+
+	/**
+	 * Get the time of impact found by the last swept collision test that
+	 * found a collision. 0 means the sprites were touching at the start of
+	 * the frame and 1 at the end.
+	 * 
+	 * @return the time of impact as a fraction of the frame (0-1)
+	 */
+	public float getTimeOfImpact(){
+		return toi;
+	}
+
+	/**
+	 * Get the world position of this sprite at the time of impact found by 
+	 * the last swept collision test.
+	 * 
+	 * @return the position at the time of impact
+	 */
+	public PointF2D getImpactXY(){
+		float sx = getSweepX(), sy = getSweepY();
+		return new PointF2D(sx + (x - sx) * toi, sy + (y - sy) * toi);
+	}
+
 	/**
 	 * See if the spites have a none transparent pixel that collide <br>
 	 * A pixel is transparent if its alpha component < ALPHALEVEL
@@ -673,31 +1208,44 @@ public class Sprite implements Comparable<Object>, PConstants, SConstants {
 	 * @return true if the sprites collide at the pixel level
 	 */
 	public boolean pp_collision(Sprite spriteB) {
+		if(!visible || !spriteB.visible || loading || spriteB.loading) return false;
+		return applyHit(spriteB, pp_test(spriteB));
+	}
+
+	/**
+	 * INTERNAL USE ONLY <br>
+	 * Pixel level collision test that does not change either sprite. The
+	 * collision masks must already have been made (see getCollisionMask()).
+	 * 
+	 * @param spriteB
+	 * @return NO_HIT or the hit positions in both sprites packed with packHit()
+	 */
+	protected long pp_test(Sprite spriteB) {
 		int topA, botA, leftA, rightA;
 		int topB, botB, leftB, rightB;
 		int topO, botO, leftO, rightO;
-		int ax, ay;
-		int bx, by;
-		int APx, APy, ASx, ASy;
-		@SuppressWarnings("unused")
-		int BPx, BPy, BSx, BSy;
-
-		if(!visible || !spriteB.visible) return false;
+		int APx, APy;
+		int BPx, BPy;
 
+		// A loading sprite has no size or collision mask
+		if(loading || spriteB.loading)
+			return NO_HIT;
 		if(rot!=0 || spriteB.rot!=0 || scale!=1 || spriteB.scale!=1)
-			return bb_collision(spriteB);
+			return pp_test_transformed(spriteB);
 
+		// The far sides are found from the image size because rounding
+		// y+halfHeight separately can give a box one pixel too big
 		topA   = (int) (y - halfHeight);
-		botA   = (int) (y + halfHeight);
+		botA   = topA + (int) height;
 		leftA  = (int) (x - halfWidth);
-		rightA = (int) (x + halfWidth);
+		rightA = leftA + (int) width;
 		topB   = (int) (spriteB.y - spriteB.halfHeight);
-		botB   = (int) (spriteB.y + spriteB.halfHeight);
+		botB   = topB + (int) spriteB.height;
 		leftB  = (int) (spriteB.x - spriteB.halfWidth);
-		rightB = (int) (spriteB.x + spriteB.halfWidth);
+		rightB = leftB + (int) spriteB.width;
 
 		if(botA <= topB  || botB <= topA || rightA <= leftB || rightB <= leftA)
-			return false;
+			return NO_HIT;
 
 		// If we get here, we know that there is an overlap
 		// So we work out where the sides of the ovelap are
@@ -705,60 +1253,427 @@ public class Sprite implements Comparable<Object>, PConstants, SConstants {
 		rightO = (rightA > rightB) ? rightB : rightA;
 		botO = (botA > botB) ? botB : botA;
 		topO = (topA < topB) ? topB : topA;
-		int widthO = rightO - leftO;
 
-		// P is the top-left, S is the bottom-right of the overlap
+		// P is the top-left of the overlap in each image
 		APx = leftO-leftA;   APy = topO-topA;
-		ASx = rightO-leftA;  ASy = botO-topA-1;
 		BPx = leftO-leftB;   BPy = topO-topB;
-		BSx = rightO-leftB;  BSy = botO-topB-1;
-
-		boolean foundCollision = false;
-
-		// Images to test
-		PImage imgA = frames[frameCurrent];
-		PImage imgB = spriteB.frames[spriteB.frameCurrent];
-		// loadPixels
-		imgA.loadPixels();
-		imgB.loadPixels();
-
-		// These are widths in BYTES. They are used inside the loop
-		//  to avoid the need to do the slow multiplications
-		int surfaceWidthA = frames[frameCurrent].width;
-		int surfaceWidthB = spriteB.frames[spriteB.frameCurrent].width;
-
-		boolean pixelAtransparent = true;
-		boolean pixelBtransparent = true;
-
-		// Get start pixel positions
-		int pA = (APy * surfaceWidthA) + APx;
-		int pB = (BPy * surfaceWidthB) + BPx;
-
-		ax = APx; ay = APy;
-		bx = BPx; by = BPy;
-		for(ay = APy; ay < ASy; ay++) {
-			bx = BPx;
-			for(ax = APx; ax < ASx; ax++) {
-				pixelAtransparent = app.alpha(imgA.pixels[pA]) < ALPHALEVEL;
-				pixelBtransparent = app.alpha(imgB.pixels[pB]) < ALPHALEVEL;
-
-				if(!pixelAtransparent && !pixelBtransparent) {
-					hit_x = ax;
-					hit_y = ay;
-					spriteB.setHitXY(bx, by);
-					foundCollision = true;
-					break;
+
+		// Test 64 pixels at a time using the collision masks
+		long hit = CollisionMask.firstOverlap(getCollisionMask(), APx, APy, 
+				spriteB.getCollisionMask(), BPx, BPy, rightO - leftO, botO - topO);
+		if(hit < 0)
+			return NO_HIT;
+		int hx = (int) hit, hy = (int) (hit >>> 32);
+		return packHit(APx + hx, APy + hy, BPx + hx, BPy + hy);
+	}
+
+	/**
+	 * INTERNAL USE ONLY <br>
+	 * Pack the hit positions in two sprites' images into a long.
+	 */
+	protected static long packHit(int ax, int ay, int bx, int by){
+		return ((long)(ax & 0xffff) << 48) | ((long)(ay & 0xffff) << 32) 
+				| ((long)(bx & 0xffff) << 16) | (by & 0xffff);
+	}
+
+	/**
+	 * INTERNAL USE ONLY <br>
+	 * Set the hit positions of this sprite and spriteB from a value made
+	 * by packHit().
+	 * 
+	 * @param spriteB
+	 * @param hit the packed hit positions or NO_HIT
+	 * @return true if there was a hit
+	 */
+	protected boolean applyHit(Sprite spriteB, long hit){
+		if(hit == NO_HIT)
+			return false;
+		hit_x = (int)(hit >>> 48) & 0xffff;
+		hit_y = (int)(hit >>> 32) & 0xffff;
+		spriteB.setHitXY((int)(hit >>> 16) & 0xffff, (int)hit & 0xffff);
+		return true;
+	}
+
+	/**
+	 * Pixel level collision detection that measures the whole overlap 
+	 * instead of stopping at the first shared solid pixel. The contact is 
+	 * filled with the number of overlapping pixels, their bounding box and 
+	 * centroid, and an approximate contact normal. <br>
+	 * If there is a collision the hit positions of both sprites are set to 
+	 * the centroid so bite(radius) works as it does after pp_collision(), 
+	 * or use bite(contact) to remove the whole overlap.
+	 * 
+	 * @param spriteB
+	 * @param contact the contact to fill (can be reused)
+	 * @return true if the sprites collide at the pixel level
+	 */
+	public boolean pp_contact(Sprite spriteB, Contact contact){
+		contact.reset();
+		contact.spriteA = this;
+		contact.spriteB = spriteB;
+		if(!visible || !spriteB.visible || loading || spriteB.loading) return false;
+		if(rot!=0 || spriteB.rot!=0 || scale!=1 || spriteB.scale!=1)
+			contactTransformed(spriteB, contact);
+		else {
+			int leftA = (int) (x - halfWidth), topA = (int) (y - halfHeight);
+			int leftB = (int) (spriteB.x - spriteB.halfWidth), topB = (int) (spriteB.y - spriteB.halfHeight);
+			int leftO = Math.max(leftA, leftB);
+			int rightO = Math.min(leftA + (int) width, leftB + (int) spriteB.width);
+			int topO = Math.max(topA, topB);
+			int botO = Math.min(topA + (int) height, topB + (int) spriteB.height);
+			if(leftO >= rightO || topO >= botO)
+				return false;
+			CollisionMask.fillContact(getCollisionMask(), leftO - leftA, topO - topA, 
+					spriteB.getCollisionMask(), leftO - leftB, topO - topB, 
+					rightO - leftO, botO - topO, contact);
+			contact.centroidBX = contact.centroidX + leftA - leftB;
+			contact.centroidBY = contact.centroidY + topA - topB;
+			contact.worldX = leftA + contact.centroidX;
+			contact.worldY = topA + contact.centroidY;
+		}
+		if(contact.count == 0)
+			return false;
+		// If the solid pixels around the overlap are too evenly spread to 
+		// give a direction use the line between the sprite centres
+		float nx = contact.normalX, ny = contact.normalY;
+		float len = (float)Math.sqrt(nx*nx + ny*ny);
+		if(len < 1){
+			nx = spriteB.x - x;
+			ny = spriteB.y - y;
+			len = (float)Math.sqrt(nx*nx + ny*ny);
+		}
+		if(len > 0){
+			contact.normalX = nx / len;
+			contact.normalY = ny / len;
+		}
+		hit_x = (int) contact.centroidX;
+		hit_y = (int) contact.centroidY;
+		spriteB.setHitXY((int) contact.centroidBX, (int) contact.centroidBY);
+		return true;
+	}
+
+	/*
+	 * Fill the contact when either sprite is rotated or scaled by mapping 
+	 * every pixel of this sprite near the overlap into spriteB's image.
+	 */
+	private void contactTransformed(Sprite spriteB, Contact contact){
+		if(!obbOverlaps(spriteB))
+			return;
+		CollisionMask maskA = getCollisionMask();
+		CollisionMask maskB = spriteB.getCollisionMask();
+		PixelMap map = pixelMap(this, spriteB, maskA);
+		if(map.empty)
+			return;
+		long count = 0, countA = 0, countB = 0;
+		double sumX = 0, sumY = 0, sumAX = 0, sumAY = 0, sumBX = 0, sumBY = 0;
+		int left = Integer.MAX_VALUE, right = -1, top = -1, bottom = -1;
+		for(int py = map.py0; py < map.py1; py++){
+			for(int px = map.px0; px < map.px1; px++){
+				float u = map.u(px, py);
+				float v = map.v(px, py);
+				boolean a = maskA.isSolid(px, py);
+				boolean b = u >= 0 && v >= 0 && maskB.isSolid((int)u, (int)v);
+				if(a){
+					countA++; sumAX += px; sumAY += py;
+				}
+				if(b){
+					countB++; sumBX += px; sumBY += py;
+				}
+				if(a && b){
+					count++; sumX += px; sumY += py;
+					left = Math.min(left, px);
+					right = Math.max(right, px + 1);
+					if(top < 0)
+						top = py;
+					bottom = py + 1;
+				}
+			}
+		}
+		contact.count = (int) count;
+		if(count == 0)
+			return;
+		contact.left = left;
+		contact.right = right;
+		contact.top = top;
+		contact.bottom = bottom;
+		contact.centroidX = (float)(sumX / count) + 0.5f;
+		contact.centroidY = (float)(sumY / count) + 0.5f;
+		contact.centroidBX = map.u(contact.centroidX - 0.5f, contact.centroidY - 0.5f);
+		contact.centroidBY = map.v(contact.centroidX - 0.5f, contact.centroidY - 0.5f);
+		float lx = (contact.centroidX - halfWidth) * scale;
+		float ly = (contact.centroidY - halfHeight) * scale;
+		contact.worldX = x + lx*map.cs - ly*map.ss;
+		contact.worldY = y + lx*map.ss + ly*map.cs;
+		// Normal from image to world direction
+		float nx = (float)(sumBX / countB - sumAX / countA);
+		float ny = (float)(sumBY / countB - sumAY / countA);
+		contact.normalX = nx*map.cs - ny*map.ss;
+		contact.normalY = nx*map.ss + ny*map.cs;
+	}
+
+	/**
+	 * Pixel level collision detection for rotated and/or scaled sprites. <br>
+	 * After quick rejection tests using the bounding circles and the
+	 * oriented image boxes, the part of one sprite's image that lies inside
+	 * the overlap of the sprites' world boxes is scanned and each solid 
+	 * pixel is mapped through the inverse transformation of the other 
+	 * sprite to see if it lands on a solid pixel. The sprite with the 
+	 * smaller scale is scanned so that no pixels are skipped.
+	 * 
+	 * @param spriteB
+	 * @return true if the sprites collide at the pixel level
+	 */
+	protected boolean pp_collision_transformed(Sprite spriteB){
+		return applyHit(spriteB, pp_test_transformed(spriteB));
+	}
+
+	/*
+	 * The transformed pixel level test without changing either sprite
+	 */
+	private long pp_test_transformed(Sprite spriteB){
+		// Bounding circles
+		float ra = (float)Math.sqrt(halfWidth*halfWidth + halfHeight*halfHeight) * scale;
+		float rb = (float)Math.sqrt(spriteB.halfWidth*spriteB.halfWidth 
+				+ spriteB.halfHeight*spriteB.halfHeight) * spriteB.scale;
+		float dx = spriteB.x - x, dy = spriteB.y - y;
+		if(dx*dx + dy*dy >= (ra + rb)*(ra + rb))
+			return NO_HIT;
+		// Oriented image boxes
+		if(!obbOverlaps(spriteB))
+			return NO_HIT;
+		// Scan the sprite whose pixels are smaller
+		Sprite s = this, t = spriteB;
+		if(spriteB.scale < scale){
+			s = spriteB;
+			t = this;
+		}
+		CollisionMask maskS = s.getCollisionMask();
+		CollisionMask maskT = t.getCollisionMask();
+		PixelMap map = pixelMap(s, t, maskS);
+		if(map.empty)
+			return NO_HIT;
+		int w = map.px1 - map.px0;
+		for(int py = map.py0; py < map.py1; py++){
+			for(int c = 0; c < w; c += 64){
+				long bits = maskS.getBits(py, map.px0 + c);
+				if(w - c < 64)
+					bits &= (1L << (w - c)) - 1;
+				while(bits != 0){
+					int px = map.px0 + c + Long.numberOfTrailingZeros(bits);
+					bits &= bits - 1;
+					float u = map.u(px, py);
+					float v = map.v(px, py);
+					if(u >= 0 && v >= 0 && maskT.isSolid((int)u, (int)v)){
+						if(s == this)
+							return packHit(px, py, (int)u, (int)v);
+						return packHit((int)u, (int)v, px, py);
+					}
 				}
-				pA ++;
-				pB ++;
-				bx++;
 			}
-			if(foundCollision) break;
-			pA = pA + surfaceWidthA - widthO;
-			pB = pB + surfaceWidthB - widthO;
-			by++;
 		}
-		return foundCollision;
+		return NO_HIT;
+	}
+
+	/*
+	 * Maps pixel positions in sprite s's image to pixel positions in 
+	 * sprite t's image and finds the part of s's image that covers the 
+	 * overlap of the sprites' world boxes. One is kept for each thread 
+	 * (see pixelMap()) and reused for every pair tested.
+	 */
+	private static class PixelMap {
+		// Part of s's image to scan (px1 and py1 are exclusive)
+		int px0, px1, py0, py1;
+		boolean empty = true;
+		// Position in t of the centre of s pixel 0,0 and the change in 
+		// position for each pixel step in s
+		float u0, v0;
+		float dudx, dudy, dvdx, dvdy;
+		// cos and sin of s's rotation
+		float cs, ss;
+
+		/*
+		 * Set up the map for a pair of sprites, returns false if no part
+		 * of s's image is inside the overlap.
+		 */
+		boolean set(Sprite s, Sprite t, CollisionMask maskS){
+			empty = true;
+			// Overlap of the world boxes
+			float left = Math.max(s.x - s.imageHalfWidth(), t.x - t.imageHalfWidth());
+			float right = Math.min(s.x + s.imageHalfWidth(), t.x + t.imageHalfWidth());
+			float top = Math.max(s.y - s.imageHalfHeight(), t.y - t.imageHalfHeight());
+			float bottom = Math.min(s.y + s.imageHalfHeight(), t.y + t.imageHalfHeight());
+			if(left >= right || top >= bottom)
+				return false;
+			// Find the part of s's image covering the overlap
+			cs = (float)Math.cos(s.rot);
+			ss = (float)Math.sin(s.rot);
+			float minU = Float.MAX_VALUE, minV = Float.MAX_VALUE;
+			float maxU = -Float.MAX_VALUE, maxV = -Float.MAX_VALUE;
+			for(int corner = 0; corner < 4; corner++){
+				float wx = ((corner & 1) == 0 ? left : right) - s.x;
+				float wy = ((corner & 2) == 0 ? top : bottom) - s.y;
+				float u = (wx*cs + wy*ss) / s.scale + s.halfWidth;
+				float v = (-wx*ss + wy*cs) / s.scale + s.halfHeight;
+				minU = Math.min(minU, u); maxU = Math.max(maxU, u);
+				minV = Math.min(minV, v); maxV = Math.max(maxV, v);
+			}
+			px0 = Math.max(0, (int)Math.floor(minU));
+			px1 = Math.min(maskS.width, (int)Math.ceil(maxU));
+			py0 = Math.max(0, (int)Math.floor(minV));
+			py1 = Math.min(maskS.height, (int)Math.ceil(maxV));
+			if(px0 >= px1 || py0 >= py1)
+				return false;
+			// Affine map from s pixel (px,py) to t pixel coordinates
+			// u = u0 + px*dudx + py*dudy, v = v0 + px*dvdx + py*dvdy
+			float ct = (float)Math.cos(t.rot), st = (float)Math.sin(t.rot);
+			float k = s.scale / t.scale;
+			float a = cs*ct + ss*st, b = cs*st - ss*ct;	// cos & -sin of (s.rot - t.rot)
+			dudx = k * a; dudy = k * b;
+			dvdx = -k * b; dvdy = k * a;
+			float ox = s.x - t.x, oy = s.y - t.y;
+			float tcx = (ox*ct + oy*st) / t.scale + t.halfWidth;
+			float tcy = (-ox*st + oy*ct) / t.scale + t.halfHeight;
+			float lx0 = 0.5f - s.halfWidth, ly0 = 0.5f - s.halfHeight;
+			u0 = tcx + lx0*dudx + ly0*dudy;
+			v0 = tcy + lx0*dvdx + ly0*dvdy;
+			empty = false;
+			return true;
+		}
+
+		float u(float px, float py){
+			return u0 + px*dudx + py*dudy;
+		}
+
+		float v(float px, float py){
+			return v0 + px*dvdx + py*dvdy;
+		}
+	}
+
+	// Pixel maps for the narrow phase, one per thread because pairs can be 
+	// tested in parallel (see S4P.testPairs())
+	private static final ThreadLocal<PixelMap> pixelMaps = new ThreadLocal<PixelMap>(){
+		protected PixelMap initialValue(){
+			return new PixelMap();
+		}
+	};
+
+	/*
+	 * Get this thread's pixel map set up for a pair of sprites.
+	 */
+	private static PixelMap pixelMap(Sprite s, Sprite t, CollisionMask maskS){
+		PixelMap map = pixelMaps.get();
+		map.set(s, t, maskS);
+		return map;
+	}
+
+	/**
+	 * INTERNAL USE ONLY <br>
+	 * Separating axis test for the sprites' rotated and scaled image boxes.
+	 * 
+	 * @param spriteB
+	 * @return true if the boxes overlap
+	 */
+	protected boolean obbOverlaps(Sprite spriteB){
+		return obbOverlap(x, y, (float)Math.cos(rot), (float)Math.sin(rot), halfWidth*scale, halfHeight*scale,
+				spriteB.x, spriteB.y, (float)Math.cos(spriteB.rot), (float)Math.sin(spriteB.rot), 
+				spriteB.halfWidth*spriteB.scale, spriteB.halfHeight*spriteB.scale);
+	}
+
+	/*
+	 * Separating axis test for two oriented boxes given their centres, the
+	 * cos/sin of their rotation angles and their half sizes. Only the
+	 * 4 box axes need testing, the projections onto them only depend on
+	 * the angle between the boxes.
+	 */
+	private static boolean obbOverlap(float xa, float ya, float ca, float sa, float hwa, float hha,
+			float xb, float yb, float cb, float sb, float hwb, float hhb){
+		float dx = xb - xa, dy = yb - ya;
+		float cosd = Math.abs(ca*cb + sa*sb);
+		float sind = Math.abs(sa*cb - ca*sb);
+		// A's axes
+		if(Math.abs(dx*ca + dy*sa) > hwa + hwb*cosd + hhb*sind)
+			return false;
+		if(Math.abs(-dx*sa + dy*ca) > hha + hwb*sind + hhb*cosd)
+			return false;
+		// B's axes
+		if(Math.abs(dx*cb + dy*sb) > hwb + hwa*cosd + hha*sind)
+			return false;
+		if(Math.abs(-dx*sb + dy*cb) > hhb + hwa*sind + hha*cosd)
+			return false;
+		return true;
+	}
+
+	/**
+	 * Determines whether the (rotated and scaled) image boxes of the 
+	 * sprites overlap, using the separating axis theorem. A quick test 
+	 * using circles around the boxes rejects sprites that are far apart.
+	 * 
+	 * @param spriteB
+	 * @return true if the sprite's oriented boxes overlap (collision)
+	 */
+	public boolean obb_collision(Sprite spriteB){
+		if(!visible || !spriteB.visible || loading || spriteB.loading) return false;
+
+		float ra = (float)Math.sqrt(halfWidth*halfWidth + halfHeight*halfHeight) * scale;
+		float rb = (float)Math.sqrt(spriteB.halfWidth*spriteB.halfWidth 
+				+ spriteB.halfHeight*spriteB.halfHeight) * spriteB.scale;
+		float dx = spriteB.x - x, dy = spriteB.y - y;
+		if(dx*dx + dy*dy >= (ra + rb)*(ra + rb))
+			return false;
+		return obbOverlaps(spriteB);
+	}
+
+	/**
+	 * Test this sprite's oriented box against a list of sprites. This 
+	 * sprite's axes and size are only calculated once.
+	 * 
+	 * @param spritesB the sprites to test against
+	 * @param hits the list to add colliding sprites to
+	 * @return the number of sprites added to hits
+	 */
+	public int obb_collision(List<Sprite> spritesB, List<Sprite> hits){
+		if(!visible || loading) return 0;
+
+		float ca = (float)Math.cos(rot), sa = (float)Math.sin(rot);
+		float hwa = halfWidth * scale, hha = halfHeight * scale;
+		float ra = (float)Math.sqrt(hwa*hwa + hha*hha);
+		int count = 0;
+		for(int i = 0; i < spritesB.size(); i++){
+			Sprite b = spritesB.get(i);
+			if(b == this || !b.visible || b.loading)
+				continue;
+			float hwb = b.halfWidth * b.scale, hhb = b.halfHeight * b.scale;
+			float rb = (float)Math.sqrt(hwb*hwb + hhb*hhb);
+			float dx = b.x - x, dy = b.y - y;
+			if(dx*dx + dy*dy >= (ra + rb)*(ra + rb))
+				continue;
+			if(obbOverlap(x, y, ca, sa, hwa, hha, 
+					b.x, b.y, (float)Math.cos(b.rot), (float)Math.sin(b.rot), hwb, hhb)){
+				hits.add(b);
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/*
+	 * Half width of the world aligned box enclosing the rotated and
+	 * scaled image.
+	 */
+	private float imageHalfWidth(){
+		if(rot == 0)
+			return halfWidth * scale;
+		return (Math.abs((float)Math.cos(rot))*halfWidth + Math.abs((float)Math.sin(rot))*halfHeight) * scale;
+	}
+
+	/*
+	 * Half height of the world aligned box enclosing the rotated and
+	 * scaled image.
+	 */
+	private float imageHalfHeight(){
+		if(rot == 0)
+			return halfHeight * scale;
+		return (Math.abs((float)Math.sin(rot))*halfWidth + Math.abs((float)Math.cos(rot))*halfHeight) * scale;
 	}
 
 	/**
@@ -770,7 +1685,9 @@ public class Sprite implements Comparable<Object>, PConstants, SConstants {
 	 * spriteB.oo_collision(spriteA, 40); <br>
 	 * are <b>not</b> equivalent. The first returns true if >=40% of spriteA
 	 * is covered by spriteB, the second statement returns true if >=40% of
-	 * spriteB is covered by spriteA.
+	 * spriteB is covered by spriteA. <br>
+	 * The overlap is measured using the image boxes so transparent pixels
+	 * are counted, use pp_oo_collision() to count solid pixels only.
 	 * 
 	 * @param spriteB
 	 * @param pcent
@@ -781,11 +1698,11 @@ public class Sprite implements Comparable<Object>, PConstants, SConstants {
 		int topB, botB, leftB, rightB;
 		int topO, botO, leftO, rightO;
 
-		if(!visible || !spriteB.visible) return false;
+		if(!visible || !spriteB.visible || loading || spriteB.loading) return false;
 
-		// If either sprite is rotated use collision circles
+		// If either sprite is rotated use oriented boxes
 		if(rot!=0 || spriteB.rot!=0)
-			return cc_collision(spriteB);
+			return obb_collision(spriteB);
 
 		// No rotation so check for sprite overlap
 		topA   = (int) (y - halfHeight*scale);
@@ -811,6 +1728,113 @@ public class Sprite implements Comparable<Object>, PConstants, SConstants {
 		return cover > pcent;
 	}
 
+	/**
+	 * Collision detection based on the percentage of THIS sprite's solid
+	 * pixels that are covered by solid pixels in spriteB. Unlike 
+	 * oo_collision() transparent pixels are ignored so this works for 
+	 * irregular shaped sprites. <br>
+	 * Counting stops as soon as the result is known so this is faster 
+	 * than using pp_coverage() and comparing the result.
+	 * 
+	 * @param spriteB
+	 * @param pcent the percentage of this sprite that must be covered
+	 * @return true if at least pcent% of this sprite is covered by spriteB
+	 */
+	public boolean pp_oo_collision(Sprite spriteB, float pcent){
+		if(!visible || !spriteB.visible || loading || spriteB.loading) return false;
+		int area = getCollisionMask().area;
+		if(area == 0)
+			return false;
+		int needed = Math.max(1, (int)Math.ceil(pcent * area / 100.0f));
+		if(needed > area)
+			return false;
+		return coveredPixels(spriteB, needed) >= needed;
+	}
+
+	/**
+	 * Get the exact percentage of THIS sprite's solid pixels that are 
+	 * covered by solid pixels in spriteB. <br>
+	 * A pixel is solid if its alpha component >= ALPHALEVEL.
+	 * 
+	 * @param spriteB
+	 * @return the percentage (0-100) of this sprite covered by spriteB
+	 */
+	public float pp_coverage(Sprite spriteB){
+		if(!visible || !spriteB.visible || loading || spriteB.loading) return 0;
+		int area = getCollisionMask().area;
+		if(area == 0)
+			return 0;
+		return coveredPixels(spriteB, 0) * 100.0f / area;
+	}
+
+	/*
+	 * Count the solid pixels of this sprite's current frame that lie on 
+	 * solid pixels of spriteB. If needed > 0 counting stops as soon as it
+	 * is known whether the count reaches needed.
+	 */
+	private int coveredPixels(Sprite spriteB, int needed){
+		CollisionMask maskA = getCollisionMask();
+		CollisionMask maskB = spriteB.getCollisionMask();
+		if(rot!=0 || spriteB.rot!=0 || scale!=1 || spriteB.scale!=1)
+			return coveredPixelsTransformed(spriteB, maskA, maskB, needed);
+
+		int leftA = (int) (x - halfWidth), topA = (int) (y - halfHeight);
+		int leftB = (int) (spriteB.x - spriteB.halfWidth), topB = (int) (spriteB.y - spriteB.halfHeight);
+		int leftO = Math.max(leftA, leftB);
+		int rightO = Math.min(leftA + (int) width, leftB + (int) spriteB.width);
+		int topO = Math.max(topA, topB);
+		int botO = Math.min(topA + (int) height, topB + (int) spriteB.height);
+		if(leftO >= rightO || topO >= botO)
+			return 0;
+		return CollisionMask.overlapCount(maskA, leftO - leftA, topO - topA, 
+				maskB, leftO - leftB, topO - topB, rightO - leftO, botO - topO, needed);
+	}
+
+	/*
+	 * Count the covered pixels when either sprite is rotated or scaled by
+	 * mapping each solid pixel of this sprite into spriteB's image.
+	 */
+	private int coveredPixelsTransformed(Sprite spriteB, CollisionMask maskA, 
+			CollisionMask maskB, int needed){
+		if(!obbOverlaps(spriteB))
+			return 0;
+		PixelMap map = pixelMap(this, spriteB, maskA);
+		if(map.empty)
+			return 0;
+		int px0 = map.px0, px1 = map.px1, py0 = map.py0, py1 = map.py1;
+		int w = px1 - px0;
+		// Most covered pixels there could be in the rows not yet scanned
+		int remaining = 0;
+		if(needed > 0){
+			for(int py = py0; py < py1; py++)
+				remaining += Math.min(w, maskA.rowCounts[py]);
+			if(remaining < needed)
+				return 0;
+		}
+		int count = 0;
+		for(int py = py0; py < py1; py++){
+			for(int c = 0; c < w; c += 64){
+				long bits = maskA.getBits(py, px0 + c);
+				if(w - c < 64)
+					bits &= (1L << (w - c)) - 1;
+				while(bits != 0){
+					int px = px0 + c + Long.numberOfTrailingZeros(bits);
+					bits &= bits - 1;
+					float u = map.u(px, py);
+					float v = map.v(px, py);
+					if(u >= 0 && v >= 0 && maskB.isSolid((int)u, (int)v))
+						count++;
+				}
+			}
+			if(needed > 0){
+				remaining -= Math.min(w, maskA.rowCounts[py]);
+				if(count >= needed || count + remaining < needed)
+					return count;
+			}
+		}
+		return count;
+	}
+
 	/**
 	 * Determines whether the spriteB overlaps this sprite. It uses the position, width, height
 	 * and scale to represent its boundaries.
@@ -821,11 +1845,14 @@ public class Sprite implements Comparable<Object>, PConstants, SConstants {
 		int topA, botA, leftA, rightA;
 		int topB, botB, leftB, rightB;
 
-		if(!visible || !spriteB.visible) return false;
+		if(!visible || !spriteB.visible || loading || spriteB.loading) return false;
+
+		if(continuousCollision || spriteB.continuousCollision)
+			return swept_bb_collision(spriteB);
 
-		// If either sprite is rotated use collision circles
+		// If either sprite is rotated use oriented boxes
 		if(rot!=0 || spriteB.rot!=0)
-			return cc_collision(spriteB);
+			return obb_collision(spriteB);
 		
 		// No rotation so check for sprite overlap
 		topA   = (int) (y - halfHeight*scale);
@@ -853,6 +1880,27 @@ public class Sprite implements Comparable<Object>, PConstants, SConstants {
 		bite(hit_x, hit_y, biteRadius);
 	}
 
+	/**
+	 * Make the overlap found by pp_contact() transparent in this sprite. 
+	 * The sprite must be one of the contact's sprites, a circle centred on 
+	 * the overlap's centroid and big enough to cover its bounding box is 
+	 * removed.
+	 * 
+	 * @param contact a contact filled by pp_contact()
+	 */
+	public void bite(Contact contact){
+		if(contact.count == 0)
+			return;
+		float w = contact.right - contact.left, h = contact.bottom - contact.top;
+		float radius = (float)Math.sqrt(w*w + h*h) / 2;
+		if(this == contact.spriteA)
+			bite((int) contact.centroidX, (int) contact.centroidY, (int)Math.ceil(radius) + 1);
+		else if(this == contact.spriteB){
+			radius *= contact.spriteA.scale / scale;
+			bite((int) contact.centroidBX, (int) contact.centroidBY, (int)Math.ceil(radius) + 1);
+		}
+	}
+
 	/**
 	 * This method makes a circular area of pixels centered around x/y 
 	 * transparent. This works fine with sprites using per-pixel transparency.
@@ -862,6 +1910,15 @@ public class Sprite implements Comparable<Object>, PConstants, SConstants {
 	 * @param biteRadius
 	 */
 	public void bite(int x, int y, int biteRadius) {
+		if(loading)
+			return;
+		// The frames are shared with other sprites so take a copy first
+		if(!framesModified)
+			frames = copyFrames(frames);
+		// The frames and masks no longer match the original image
+		framesModified = true;
+		masks = null;
+		version++;
 		int x1 = x - biteRadius;
 		int y1 = y - biteRadius;
 		int x2 = x + biteRadius;
@@ -953,15 +2010,19 @@ public class Sprite implements Comparable<Object>, PConstants, SConstants {
 			nbrRepeats = nrepeats;
 			animInterval = interval;
 			animTime = 0.0f;
-			frameBegin = PApplet.constrain(firstFrame, 0, frames.length - 1);
-			frameEnd = PApplet.constrain(lastFrame, 0, frames.length - 1);
+			int nbrFrames = info.nbrCols * info.nbrRows;
+			frameBegin = PApplet.constrain(firstFrame, 0, nbrFrames - 1);
+			frameEnd = PApplet.constrain(lastFrame, 0, nbrFrames - 1);
 
 			if(frameBegin > frameEnd){
 				int temp = frameBegin;
 				frameBegin = frameEnd;
 				frameEnd = temp;
 			}
-			frameCurrent = frameBegin;
+			if(frameCurrent != frameBegin){
+				frameCurrent = frameBegin;
+				version++;
+			}
 		}		
 	}
 
@@ -985,7 +2046,8 @@ public class Sprite implements Comparable<Object>, PConstants, SConstants {
 	 */
 	public void setFrame(int frameNo){
 		animInterval = 0.0f;
-		frameCurrent = PApplet.constrain(frameNo, 0, frames.length);	
+		frameCurrent = PApplet.constrain(frameNo, 0, info.nbrCols * info.nbrRows);	
+		version++;
 	}
 
 	/**
@@ -1098,7 +2160,9 @@ public class Sprite implements Comparable<Object>, PConstants, SConstants {
 	 * @param angle s
 	 */
 	public void setRot(float angle){
-		this.rot = angle;
+		this.rot = prevRot = angle;
+		version++;
+		S4P.spriteMoved(this);
 	}
 
 	/**
@@ -1117,6 +2181,8 @@ public class Sprite implements Comparable<Object>, PConstants, SConstants {
 	 */
 	public void setScale(float scale){
 		this.scale = scale;
+		version++;
+		S4P.spriteMoved(this);
 	}
 
 	/**
@@ -1133,8 +2199,10 @@ public class Sprite implements Comparable<Object>, PConstants, SConstants {
 	 * @param y
 	 */
 	public void setXY(float x, float y){
-		this.x = x;
-		this.y = y;
+		this.x = prevX = sweepX = x;
+		this.y = prevY = sweepY = y;
+		version++;
+		S4P.spriteMoved(this);
 	}
 
 	/**
@@ -1142,7 +2210,9 @@ public class Sprite implements Comparable<Object>, PConstants, SConstants {
 	 * @param x
 	 */
 	public void setX(float x){
-		this.x = x;
+		this.x = prevX = sweepX = x;
+		version++;
+		S4P.spriteMoved(this);
 	}
 
 	/**
@@ -1157,7 +2227,9 @@ public class Sprite implements Comparable<Object>, PConstants, SConstants {
 	 * @param y
 	 */
 	public void setY(float y){
-		this.y = y;
+		this.y = prevY = sweepY = y;
+		version++;
+		S4P.spriteMoved(this);
 	}
 
 	/**
@@ -1268,6 +2340,8 @@ public class Sprite implements Comparable<Object>, PConstants, SConstants {
 	 */
 	public void setCollisionRadius(float colRadius){
 		this.colRadius = colRadius;
+		version++;
+		S4P.spriteMoved(this);
 	}
 
 	/**
@@ -1284,6 +2358,7 @@ public class Sprite implements Comparable<Object>, PConstants, SConstants {
 	 */
 	public void setVisible(boolean visible){
 		this.visible = visible;
+		version++;
 	}
 
 	/**
@@ -1300,8 +2375,7 @@ public class Sprite implements Comparable<Object>, PConstants, SConstants {
 	 * @param zOrder
 	 */
 	public void setZorder(int zOrder){
-		this.zOrder = zOrder;
-		S4P.sortZorder();
+		S4P.changeZorder(this, zOrder);
 	}
 
 	
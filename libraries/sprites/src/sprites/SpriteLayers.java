@@ -0,0 +1,255 @@
+/*
+  Part of the Sprites for Processing library 
+  	http://sprites4processing.lagers.org.uk
+	http://code.google.com/p/sprites4processing/svn/trunk
+
+  Copyright (c) 2009 Peter Lager
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+ */
+
+package sprites;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * CLASS FOR INTERNAL USE ONLY <br>
+ * 
+ * Holds all the registered sprites in draw order. There is one layer for 
+ * each z order value in use and the layers are kept in ascending z order. <br>
+ * 
+ * Each layer is an array with sprites stored in the order they were added. 
+ * Adding a sprite appends it to its layer and removing a sprite clears its 
+ * slot, both are O(1). The empty slots are squeezed out by compact() which
+ * preserves the order of the remaining sprites. Changing a sprite's z order 
+ * moves that sprite only, nothing is sorted.
+ * 
+ * @author Peter Lager
+ *
+ */
+public class SpriteLayers implements Iterable<Sprite> {
+
+	/**
+	 * INTERNAL USE ONLY
+	 * The sprites with the same z order value.
+	 */
+	static class Layer {
+		final int zOrder;
+		Sprite[] items = new Sprite[16];
+		// Number of slots used including empty ones
+		int size = 0;
+		// Number of empty slots
+		int holes = 0;
+
+		Layer(int zOrder){
+			this.zOrder = zOrder;
+		}
+
+		void add(Sprite s){
+			if(size == items.length){
+				Sprite[] ni = new Sprite[items.length * 2];
+				System.arraycopy(items, 0, ni, 0, size);
+				items = ni;
+			}
+			s.layer = this;
+			s.layerIndex = size;
+			items[size++] = s;
+		}
+
+		void remove(Sprite s){
+			items[s.layerIndex] = null;
+			holes++;
+			s.layer = null;
+			s.layerIndex = -1;
+		}
+
+		/*
+		 * Discard all slots from n onwards, used after the sprites have been 
+		 * moved down to fill any empty slots.
+		 */
+		void truncate(int n){
+			for(int i = n; i < size; i++)
+				items[i] = null;
+			size = n;
+			holes = 0;
+		}
+
+		void compact(){
+			if(holes == 0)
+				return;
+			int n = 0;
+			for(int i = 0; i < size; i++){
+				Sprite s = items[i];
+				if(s != null){
+					s.layerIndex = n;
+					items[n++] = s;
+				}
+			}
+			for(int i = n; i < size; i++)
+				items[i] = null;
+			size = n;
+			holes = 0;
+		}
+	}
+
+	// Layers in ascending z order
+	private ArrayList<Layer> layers = new ArrayList<Layer>();
+	private int nbrSprites = 0;
+
+	/**
+	 * Get the number of sprites held
+	 */
+	public int size(){
+		return nbrSprites;
+	}
+
+	/**
+	 * Get the number of layers (different z order values)
+	 */
+	public int nbrLayers(){
+		return layers.size();
+	}
+
+	/**
+	 * Get a layer, layers are in ascending z order.
+	 * @param n the layer number
+	 */
+	Layer layer(int n){
+		return layers.get(n);
+	}
+
+	/**
+	 * Add a sprite to the end of the layer matching its z order.
+	 * @param s
+	 */
+	public void add(Sprite s){
+		if(s.layer != null)
+			return;
+		getLayer(s.zOrder).add(s);
+		nbrSprites++;
+	}
+
+	/**
+	 * Remove a sprite
+	 * @param s
+	 */
+	public void remove(Sprite s){
+		if(s.layer == null)
+			return;
+		s.layer.remove(s);
+		nbrSprites--;
+	}
+
+	/**
+	 * Detach a sprite from its layer without clearing its slot. Only used 
+	 * when the caller is compacting the layer itself.
+	 * @param s
+	 */
+	void discard(Sprite s){
+		if(s.layer == null)
+			return;
+		s.layer = null;
+		s.layerIndex = -1;
+		nbrSprites--;
+	}
+
+	/**
+	 * Change the z order of a sprite moving it to the end of its new layer. 
+	 * @param s
+	 * @param zOrder
+	 */
+	public void move(Sprite s, int zOrder){
+		if(s.layer == null){
+			s.zOrder = zOrder;
+			return;
+		}
+		if(s.zOrder == zOrder)
+			return;
+		s.layer.remove(s);
+		s.zOrder = zOrder;
+		getLayer(zOrder).add(s);
+	}
+
+	/**
+	 * Remove empty slots from all layers keeping the sprite order.
+	 */
+	public void compact(){
+		for(int i = 0; i < layers.size(); i++)
+			layers.get(i).compact();
+	}
+
+	/**
+	 * Find the layer for a z order value creating it if necessary.
+	 */
+	private Layer getLayer(int zOrder){
+		int lo = 0, hi = layers.size() - 1;
+		while(lo <= hi){
+			int mid = (lo + hi) >>> 1;
+			int z = layers.get(mid).zOrder;
+			if(z < zOrder)
+				lo = mid + 1;
+			else if(z > zOrder)
+				hi = mid - 1;
+			else
+				return layers.get(mid);
+		}
+		Layer layer = new Layer(zOrder);
+		layers.add(lo, layer);
+		return layer;
+	}
+
+	/**
+	 * Iterate over the sprites in draw order
+	 */
+	public Iterator<Sprite> iterator() {
+		return new Iterator<Sprite>(){
+			int ln = 0, i = 0;
+			Sprite next = advance();
+
+			private Sprite advance(){
+				while(ln < layers.size()){
+					Layer layer = layers.get(ln);
+					while(i < layer.size){
+						Sprite s = layer.items[i++];
+						if(s != null)
+							return s;
+					}
+					ln++;
+					i = 0;
+				}
+				return null;
+			}
+
+			public boolean hasNext() {
+				return next != null;
+			}
+
+			public Sprite next() {
+				if(next == null)
+					throw new NoSuchElementException();
+				Sprite s = next;
+				next = advance();
+				return s;
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+}
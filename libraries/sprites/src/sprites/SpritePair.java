@@ -0,0 +1,61 @@
+/*
+  Part of the Sprites for Processing library 
+  	http://sprites4processing.lagers.org.uk
+	http://code.google.com/p/sprites4processing/svn/trunk
+
+  Copyright (c) 2009 Peter Lager
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+ */
+
+package sprites;
+
+/**
+ * A pair of sprites reported by the S4P collision methods. <br>
+ * 
+ * The objects are recycled by S4P so you should not keep a reference
+ * to them beyond the next call to S4P.findCollisions(). <br>
+ * 
+ * @author Peter Lager
+ *
+ */
+public class SpritePair {
+
+	public Sprite spriteA;
+	public Sprite spriteB;
+
+	/**
+	 * Create an empty sprite pair
+	 */
+	public SpritePair() {
+		spriteA = spriteB = null;
+	}
+
+	/**
+	 * Create a sprite pair
+	 * 
+	 * @param spriteA
+	 * @param spriteB
+	 */
+	public SpritePair(Sprite spriteA, Sprite spriteB) {
+		this.spriteA = spriteA;
+		this.spriteB = spriteB;
+	}
+
+	public String toString(){
+		return "["+spriteA+", "+spriteB+"]";
+	}
+}
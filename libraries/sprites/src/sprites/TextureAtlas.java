@@ -0,0 +1,443 @@
+/*
+  Part of the Sprites for Processing library 
+  	http://sprites4processing.lagers.org.uk
+	http://code.google.com/p/sprites4processing/svn/trunk
+
+  Copyright (c) 2009 Peter Lager
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+ */
+
+
+package sprites;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import processing.core.PApplet;
+import processing.core.PConstants;
+import processing.core.PImage;
+
+/**
+ * Packs the frames of many images into one or a few large page images 
+ * so that sprites using different images can be drawn from the same 
+ * texture. Each frame is recorded as a Region (a sub-rectangle of a page). <br>
+ * 
+ * The frames are packed using the skyline bottom-left algorithm, largest
+ * frames first. If trimming is on the fully transparent border round each 
+ * frame is not stored, the region remembers where the trimmed area was in 
+ * the original frame so it is drawn in the same place. <br>
+ * 
+ * An atlas is normally created with S4P.buildTextureAtlas() which packs
+ * the frames of every image loaded so far.
+ * 
+ * @author Peter Lager
+ *
+ */
+public class TextureAtlas implements PConstants {
+
+	// Transparent gap between regions to stop neighbouring frames 
+	// bleeding into each other when the page is drawn scaled
+	private static final int PADDING = 1;
+
+	/**
+	 * The area of a page used to hold a single frame.
+	 */
+	public static class Region {
+		/** The page image holding this frame */
+		public final PImage page;
+		/** The page number */
+		public final int pageNo;
+		/** The position and size of the stored pixels on the page */
+		public final int x, y, w, h;
+		/** The position of the stored pixels inside the original frame */
+		public final int offX, offY;
+		/** The size of the original frame */
+		public final int frameWidth, frameHeight;
+
+		Region(PImage page, int pageNo, int x, int y, int w, int h, 
+				int offX, int offY, int frameWidth, int frameHeight){
+			this.page = page;
+			this.pageNo = pageNo;
+			this.x = x;
+			this.y = y;
+			this.w = w;
+			this.h = h;
+			this.offX = offX;
+			this.offY = offY;
+			this.frameWidth = frameWidth;
+			this.frameHeight = frameHeight;
+		}
+
+		/**
+		 * Draw the frame centred on px,py with the size fw x fh. Assumes 
+		 * imageMode(CENTER) has been set.
+		 * 
+		 * @param app
+		 * @param px
+		 * @param py
+		 * @param fw the width to draw the whole frame
+		 * @param fh the height to draw the whole frame
+		 */
+		public void draw(PApplet app, float px, float py, float fw, float fh){
+			if(w == 0 || h == 0)
+				return;
+			float sx = fw / frameWidth, sy = fh / frameHeight;
+			app.image(page, 
+					px + (offX + 0.5f * (w - frameWidth)) * sx, 
+					py + (offY + 0.5f * (h - frameHeight)) * sy, 
+					w * sx, h * sy, x, y, x + w, y + h);
+		}
+	}
+
+	/*
+	 * Packing details for a single frame
+	 */
+	private static class Entry {
+		PImage frame;
+		int offX, offY, w, h;
+		Region region;
+	}
+
+	private final int pageSize;
+	private final boolean trim;
+	private ArrayList<PImage> pages = new ArrayList<PImage>();
+	private ArrayList<Skyline> skylines = new ArrayList<Skyline>();
+	private int nbrRegions = 0;
+	private long usedArea = 0;
+	// Area of regions no longer needed, it is only reclaimed by rebuilding
+	private long freedArea = 0;
+
+	/**
+	 * Create an empty atlas.
+	 * 
+	 * @param pageSize the width and height of each page
+	 * @param trim true to remove the transparent border round each frame
+	 */
+	public TextureAtlas(int pageSize, boolean trim){
+		this.pageSize = Math.max(16, pageSize);
+		this.trim = trim;
+	}
+
+	/**
+	 * Pack a list of frame sets into the atlas. The returned array has 
+	 * one Region array for each frame set in the same order. <br>
+	 * 
+	 * Frames are added to the space left on existing pages before new 
+	 * pages are created. A frame bigger than the page size is given a 
+	 * page of its own.
+	 * 
+	 * @param frameSets the frames to pack
+	 * @return the regions for each frame
+	 */
+	public Region[][] pack(List<PImage[]> frameSets){
+		ArrayList<Entry> entries = new ArrayList<Entry>();
+		ArrayList<Entry[]> setEntries = new ArrayList<Entry[]>();
+		for(int s = 0; s < frameSets.size(); s++){
+			PImage[] frames = frameSets.get(s);
+			Entry[] e = new Entry[frames.length];
+			for(int f = 0; f < frames.length; f++){
+				e[f] = makeEntry(frames[f]);
+				if(e[f].w > 0 && e[f].h > 0)
+					entries.add(e[f]);
+			}
+			setEntries.add(e);
+		}
+		// Tallest first then widest gives a compact skyline
+		Entry[] order = entries.toArray(new Entry[entries.size()]);
+		Arrays.sort(order, new Comparator<Entry>(){
+			public int compare(Entry a, Entry b) {
+				if(a.h != b.h)
+					return b.h - a.h;
+				return b.w - a.w;
+			}
+		});
+		int[] xy = new int[2];
+		for(int i = 0; i < order.length; i++){
+			Entry e = order[i];
+			int pw = e.w + PADDING, ph = e.h + PADDING;
+			int pn = -1;
+			for(int p = 0; p < skylines.size() && pn < 0; p++)
+				if(skylines.get(p).place(pw, ph, xy))
+					pn = p;
+			if(pn < 0){
+				int size = Math.max(pageSize, Math.max(pw, ph));
+				pages.add(new PImage(size, size, ARGB));
+				Skyline sky = new Skyline(size, size);
+				skylines.add(sky);
+				pn = skylines.size() - 1;
+				sky.place(pw, ph, xy);
+			}
+			PImage page = pages.get(pn);
+			page.copy(e.frame, e.offX, e.offY, e.w, e.h, xy[0], xy[1], e.w, e.h);
+			e.region = new Region(page, pn, xy[0], xy[1], e.w, e.h, 
+					e.offX, e.offY, e.frame.width, e.frame.height);
+			usedArea += e.w * e.h;
+		}
+		for(int p = 0; p < pages.size(); p++)
+			pages.get(p).updatePixels();
+		// Put the regions back into frame order
+		Region[][] regions = new Region[frameSets.size()][];
+		for(int s = 0; s < setEntries.size(); s++){
+			Entry[] e = setEntries.get(s);
+			regions[s] = new Region[e.length];
+			for(int f = 0; f < e.length; f++){
+				if(e[f].region == null)	// fully transparent frame
+					e[f].region = new Region(null, -1, 0, 0, 0, 0, 0, 0, 
+							e[f].frame.width, e[f].frame.height);
+				regions[s][f] = e[f].region;
+			}
+			nbrRegions += e.length;
+		}
+		return regions;
+	}
+
+	/*
+	 * Find the area of the frame to store, with trimming this is the 
+	 * smallest rectangle holding all the non transparent pixels.
+	 */
+	private Entry makeEntry(PImage frame){
+		Entry e = new Entry();
+		e.frame = frame;
+		e.w = frame.width;
+		e.h = frame.height;
+		if(!trim)
+			return e;
+		frame.loadPixels();
+		int[] pixels = frame.pixels;
+		int fw = frame.width;
+		int left = fw, right = -1, top = frame.height, bottom = -1;
+		for(int y = 0; y < frame.height; y++){
+			int row = y * fw;
+			for(int x = 0; x < fw; x++){
+				if((pixels[row + x] >>> 24) != 0){
+					if(x < left) left = x;
+					if(x > right) right = x;
+					if(y < top) top = y;
+					bottom = y;
+				}
+			}
+		}
+		if(right < 0){
+			e.w = e.h = 0;
+		}
+		else {
+			e.offX = left;
+			e.offY = top;
+			e.w = right - left + 1;
+			e.h = bottom - top + 1;
+		}
+		return e;
+	}
+
+	/**
+	 * Get the number of pages
+	 */
+	public int getNbrPages(){
+		return pages.size();
+	}
+
+	/**
+	 * Get a page image
+	 * @param pageNo
+	 * @return the page image
+	 */
+	public PImage getPage(int pageNo){
+		return pages.get(pageNo);
+	}
+
+	/**
+	 * INTERNAL USE ONLY
+	 * The frames are no longer needed. Their page area is not reused but is 
+	 * counted so that S4P can rebuild the atlas when much of it is unused.
+	 * 
+	 * @param regions the regions for the frames no longer needed
+	 */
+	public void free(Region[] regions){
+		for(int i = 0; i < regions.length; i++){
+			long area = (long)regions[i].w * regions[i].h;
+			usedArea -= area;
+			freedArea += area;
+		}
+	}
+
+	/**
+	 * Returns true if more of the page area is taken by freed frames than 
+	 * by frames still in use, i.e. rebuilding the atlas would save memory.
+	 */
+	public boolean isWasteful(){
+		return freedArea > usedArea;
+	}
+
+	/**
+	 * Get the width and height used for new pages
+	 */
+	public int getPageSize(){
+		return pageSize;
+	}
+
+	/**
+	 * Are transparent borders trimmed from the frames?
+	 */
+	public boolean isTrimmed(){
+		return trim;
+	}
+
+	/**
+	 * Get the number of bytes used by the page images
+	 */
+	public long getBytes(){
+		long bytes = 0;
+		for(int p = 0; p < pages.size(); p++)
+			bytes += 4L * pages.get(p).width * pages.get(p).height;
+		return bytes;
+	}
+
+	/**
+	 * Get the number of frames packed into the atlas
+	 */
+	public int getNbrRegions(){
+		return nbrRegions;
+	}
+
+	/**
+	 * Get the fraction of the total page area used by frame pixels
+	 * (0.0 - 1.0)
+	 */
+	public float getOccupancy(){
+		long total = 0;
+		for(int p = 0; p < pages.size(); p++)
+			total += (long)pages.get(p).width * pages.get(p).height;
+		return (total == 0) ? 0 : (float)((double)usedArea / total);
+	}
+
+	/*
+	 * The skyline of a page, a list of horizontal segments giving the 
+	 * height already used across the page width.
+	 */
+	private static class Skyline {
+		final int width, height;
+		// Segment start x, width and the y of the top of the used area
+		int[] sx, sw, sy;
+		int n;
+
+		Skyline(int width, int height){
+			this.width = width;
+			this.height = height;
+			sx = new int[16];
+			sw = new int[16];
+			sy = new int[16];
+			sw[0] = width;
+			n = 1;
+		}
+
+		/*
+		 * Find the lowest position (then leftmost) where a w x h rectangle 
+		 * fits, returning false if it does not fit on this page.
+		 */
+		boolean place(int w, int h, int[] xy){
+			int best = -1, bestY = Integer.MAX_VALUE, bestX = 0;
+			for(int i = 0; i < n; i++){
+				int y = fitY(i, w);
+				if(y >= 0 && y + h <= height && (y < bestY || (y == bestY && sx[i] < bestX))){
+					best = i;
+					bestY = y;
+					bestX = sx[i];
+				}
+			}
+			if(best < 0)
+				return false;
+			xy[0] = bestX;
+			xy[1] = bestY;
+			addSegment(best, bestX, w, bestY + h);
+			return true;
+		}
+
+		/*
+		 * The y position a rectangle of width w would rest at if its left
+		 * edge was at the start of segment i, -1 if it does not fit across.
+		 */
+		private int fitY(int i, int w){
+			if(sx[i] + w > width)
+				return -1;
+			int y = 0, remain = w;
+			while(remain > 0){
+				y = Math.max(y, sy[i]);
+				remain -= sw[i];
+				i++;
+			}
+			return y;
+		}
+
+		/*
+		 * Replace the segments covered by the new rectangle with a single
+		 * segment at its top edge.
+		 */
+		private void addSegment(int i, int x, int w, int top){
+			int end = x + w;
+			int j = i;
+			while(j < n && sx[j] + sw[j] <= end)
+				j++;
+			// Segment j (if any) is only partly covered
+			if(j < n && sx[j] < end){
+				sw[j] -= end - sx[j];
+				sx[j] = end;
+			}
+			// Segments i to j-1 are replaced by a single segment
+			if(j == i)
+				insert(i);
+			else if(j > i + 1){
+				System.arraycopy(sx, j, sx, i + 1, n - j);
+				System.arraycopy(sw, j, sw, i + 1, n - j);
+				System.arraycopy(sy, j, sy, i + 1, n - j);
+				n -= j - i - 1;
+			}
+			sx[i] = x;
+			sw[i] = w;
+			sy[i] = top;
+			// Merge with neighbours at the same height
+			if(i + 1 < n && sy[i + 1] == top){
+				sw[i] += sw[i + 1];
+				remove(i + 1);
+			}
+			if(i > 0 && sy[i - 1] == top){
+				sw[i - 1] += sw[i];
+				remove(i);
+			}
+		}
+
+		private void insert(int i){
+			if(n == sx.length){
+				sx = Arrays.copyOf(sx, 2 * n);
+				sw = Arrays.copyOf(sw, 2 * n);
+				sy = Arrays.copyOf(sy, 2 * n);
+			}
+			System.arraycopy(sx, i, sx, i + 1, n - i);
+			System.arraycopy(sw, i, sw, i + 1, n - i);
+			System.arraycopy(sy, i, sy, i + 1, n - i);
+			n++;
+		}
+
+		private void remove(int i){
+			System.arraycopy(sx, i + 1, sx, i, n - i - 1);
+			System.arraycopy(sw, i + 1, sw, i, n - i - 1);
+			System.arraycopy(sy, i + 1, sy, i, n - i - 1);
+			n--;
+		}
+	}
+}
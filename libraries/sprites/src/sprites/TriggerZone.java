@@ -0,0 +1,334 @@
+/*
+  Part of the Sprites for Processing library 
+  	http://sprites4processing.lagers.org.uk
+	http://code.google.com/p/sprites4processing/svn/trunk
+
+  Copyright (c) 2009 Peter Lager
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+ */
+
+package sprites;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * An area of the world that fires events when sprites enter it, stay in 
+ * it or leave it. <br>
+ * 
+ * A zone can be rectangular (using a Domain) or circular. Zones must be 
+ * added to S4P with S4P.addTriggerZone() and are then checked every time 
+ * S4P.updateSprites() is called. Only the sprites found by a quadtree 
+ * query of the zone's area are tested so the cost depends on the number 
+ * of sprites near the zone not the total number of sprites. <br>
+ * 
+ * A sprite is inside the zone if its position (centre) is inside. The 
+ * event handler must have a single TriggerZone parameter e.g.
+ * <pre>
+ * void zoneEvent(TriggerZone zone){
+ *   if(zone.eventType == TriggerZone.ENTERED)
+ *     println(zone.eventSprite + " entered");
+ * }
+ * </pre>
+ * 
+ * @author Peter Lager
+ *
+ */
+public class TriggerZone implements SConstants {
+
+	// Rectangular zones use the domain, circular zones the centre & radius
+	protected Domain domain = null;
+	protected float cx, cy, radius;
+
+	// Only sprites in these collision categories trigger events
+	protected int mask = ALL_CATEGORIES;
+	protected boolean stayEvents = true;
+	protected boolean enabled = true;
+
+	// Sprites inside the zone at the last and the current check, kept in 
+	// the order they were found so events always fire in the same order
+	protected LinkedHashSet<Sprite> inside = new LinkedHashSet<Sprite>();
+	protected LinkedHashSet<Sprite> nowInside = new LinkedHashSet<Sprite>();
+	protected ArrayList<Sprite> candidates = new ArrayList<Sprite>();
+	// Events found by check(), they are fired after the sets are updated
+	// so the event handlers can change the zone safely
+	protected ArrayList<Sprite> eventSprites = new ArrayList<Sprite>();
+	protected int[] eventTypes = new int[16];
+
+	/** The type of the last event ENTERED, STAYED or EXITED */
+	public int eventType = 0;
+	/** The sprite that caused the last event */
+	public Sprite eventSprite = null;
+
+	/** The object to handle the event */
+	protected Object eventHandlerObject = null;
+	/** The method in eventHandlerObject to execute */
+	protected Method eventHandlerMethod = null;
+	/** the name of the method to handle the event */ 
+	protected String eventHandlerMethodName;
+
+	/**
+	 * Create a rectangular trigger zone. Changes to the domain move or
+	 * resize the zone.
+	 * 
+	 * @param domain the area of the zone in world coordinates
+	 */
+	public TriggerZone(Domain domain) {
+		this.domain = domain;
+	}
+
+	/**
+	 * Create a rectangular trigger zone.
+	 * 
+	 * @param left
+	 * @param top
+	 * @param right
+	 * @param bottom
+	 */
+	public TriggerZone(float left, float top, float right, float bottom) {
+		this(new Domain(left, top, right, bottom));
+	}
+
+	/**
+	 * Create a circular trigger zone.
+	 * 
+	 * @param cx centre x (world)
+	 * @param cy centre y (world)
+	 * @param radius
+	 */
+	public TriggerZone(float cx, float cy, float radius) {
+		setCircle(cx, cy, radius);
+	}
+
+	/**
+	 * Make this a circular zone with the given centre and radius.
+	 * 
+	 * @param cx centre x (world)
+	 * @param cy centre y (world)
+	 * @param radius
+	 */
+	public void setCircle(float cx, float cy, float radius){
+		domain = null;
+		this.cx = cx;
+		this.cy = cy;
+		this.radius = radius;
+	}
+
+	/**
+	 * Make this a rectangular zone.
+	 * 
+	 * @param domain the area of the zone in world coordinates
+	 */
+	public void setDomain(Domain domain){
+		this.domain = domain;
+	}
+
+	/**
+	 * Get the domain for a rectangular zone.
+	 * 
+	 * @return the domain or null if this is a circular zone
+	 */
+	public Domain getDomain(){
+		return domain;
+	}
+
+	/**
+	 * Only sprites whose collision category has a bit in common with the
+	 * mask trigger events. The default is ALL_CATEGORIES.
+	 * 
+	 * @param mask
+	 */
+	public void setCategoryMask(int mask){
+		this.mask = mask;
+	}
+
+	/**
+	 * Fire STAYED events for every sprite inside the zone each time the
+	 * zone is checked. This is on by default.
+	 * 
+	 * @param stayEvents
+	 */
+	public void setStayEvents(boolean stayEvents){
+		this.stayEvents = stayEvents;
+	}
+
+	/**
+	 * Enable or disable the zone. When disabled no events are fired and 
+	 * the zone is treated as empty.
+	 * 
+	 * @param enabled
+	 */
+	public void setEnabled(boolean enabled){
+		this.enabled = enabled;
+		if(!enabled)
+			inside.clear();
+	}
+
+	/**
+	 * Is the zone enabled?
+	 */
+	public boolean isEnabled(){
+		return enabled;
+	}
+
+	/**
+	 * Is the world position inside the zone?
+	 * 
+	 * @param x
+	 * @param y
+	 * @return true if inside
+	 */
+	public boolean contains(float x, float y){
+		if(domain != null)
+			return x >= domain.left && x <= domain.right && y >= domain.top && y <= domain.bottom;
+		return (x - cx)*(x - cx) + (y - cy)*(y - cy) <= radius * radius;
+	}
+
+	/**
+	 * Is the sprite currently inside the zone? This is the state at the 
+	 * last check.
+	 * 
+	 * @param sprite
+	 * @return true if inside
+	 */
+	public boolean isInside(Sprite sprite){
+		return inside.contains(sprite);
+	}
+
+	/**
+	 * Get the number of sprites inside the zone at the last check.
+	 */
+	public int getNbrInside(){
+		return inside.size();
+	}
+
+	/**
+	 * Add all the sprites inside the zone at the last check to a list.
+	 * 
+	 * @param found the list to add the sprites to
+	 */
+	public void getInside(List<Sprite> found){
+		found.addAll(inside);
+	}
+
+	/**
+	 * Set the method to handle the zone's events. The method must have a 
+	 * single TriggerZone parameter.
+	 * 
+	 * @param obj the object to handle the event
+	 * @param methodName the method to execute in the object handler class
+	 */
+	public void addEventHandler(Object obj, String methodName){
+		try{
+			eventHandlerObject = obj;
+			eventHandlerMethodName = methodName;
+			eventHandlerMethod = obj.getClass().getMethod(methodName, new Class[] {TriggerZone.class } );
+		} catch (Exception e) {
+			SMessenger.message(NONEXISTANT, this, new Object[] {methodName, new Class[] { TriggerZone.class } } );
+			eventHandlerObject = null;
+			eventHandlerMethodName = "";
+		}
+	}
+
+	/**
+	 * INTERNAL USE ONLY <br>
+	 * Called by S4P to find which sprites have entered, stayed in or left 
+	 * the zone since the last check and fire the events.
+	 * 
+	 * @param tree the quadtree holding the sprites
+	 */
+	protected void check(QuadTree tree){
+		if(!enabled)
+			return;
+		candidates.clear();
+		if(domain != null)
+			tree.query(domain.left, domain.top, domain.right, domain.bottom, candidates);
+		else
+			tree.query(cx - radius, cy - radius, cx + radius, cy + radius, candidates);
+		nowInside.clear();
+		eventSprites.clear();
+		for(int i = 0; i < candidates.size(); i++){
+			Sprite s = candidates.get(i);
+			if(s.dead || (s.category & mask) == 0 || !contains(s.x, s.y))
+				continue;
+			nowInside.add(s);
+			if(inside.remove(s)){
+				if(stayEvents)
+					addEvent(STAYED, s);
+			}
+			else
+				addEvent(ENTERED, s);
+		}
+		candidates.clear();
+		// Anything left was inside last time but isn't now
+		for(Sprite s : inside)
+			addEvent(EXITED, s);
+		LinkedHashSet<Sprite> temp = inside;
+		inside = nowInside;
+		nowInside = temp;
+		nowInside.clear();
+		// Stop firing if a handler disables or removes the zone (removing 
+		// it empties the event list)
+		for(int i = 0; i < eventSprites.size() && enabled; i++)
+			fireEvent(eventTypes[i], eventSprites.get(i));
+		eventSprites.clear();
+	}
+
+	private void addEvent(int type, Sprite sprite){
+		int n = eventSprites.size();
+		if(n == eventTypes.length){
+			int[] et = new int[n * 2];
+			System.arraycopy(eventTypes, 0, et, 0, n);
+			eventTypes = et;
+		}
+		eventTypes[n] = type;
+		eventSprites.add(sprite);
+	}
+
+	/**
+	 * INTERNAL USE ONLY <br>
+	 * Called by S4P when the zone is removed. Sprites inside the zone are 
+	 * forgotten without firing events, including any events still to be 
+	 * fired by this check if a handler removed the zone.
+	 */
+	protected void clear(){
+		inside.clear();
+		nowInside.clear();
+		eventSprites.clear();
+	}
+
+	/**
+	 * Attempt to fire an event for this zone.
+	 * 
+	 * @param type ENTERED, STAYED or EXITED
+	 * @param sprite the sprite causing the event
+	 */
+	protected void fireEvent(int type, Sprite sprite){
+		eventType = type;
+		eventSprite = sprite;
+		if(eventHandlerMethod != null){
+			try {
+				eventHandlerMethod.invoke(eventHandlerObject, new Object[] { this });
+			} catch (Exception e) {
+				SMessenger.message(EXCP_IN_HANDLER, eventHandlerObject, 
+						new Object[] {eventHandlerMethodName, e } );
+			}
+		}
+	}
+}